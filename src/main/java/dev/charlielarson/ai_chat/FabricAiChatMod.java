@@ -1,10 +1,17 @@
 package dev.charlielarson.ai_chat;
 
 import dev.charlielarson.ai_chat.command.AiCommand;
+import dev.charlielarson.ai_chat.command.ChatTrigger;
 import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.fastpath.FastPathIndex;
+import dev.charlielarson.ai_chat.state.SharedStates;
+import dev.charlielarson.ai_chat.util.InteractionLog;
 import net.fabricmc.api.DedicatedServerModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.message.v1.ServerMessageEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.server.MinecraftServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,10 +45,40 @@ public class FabricAiChatMod implements DedicatedServerModInitializer {
             loadOrCreateConfig(server);
         });
 
+        // Registries, recipes and commands are final once the server has started;
+        // datapack reloads can change all three
+        ServerLifecycleEvents.SERVER_STARTED.register(FastPathIndex::rebuild);
+        ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resourceManager, success) -> {
+            if (success)
+                FastPathIndex.rebuild(server);
+        });
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            InteractionLog.shutdown();
+            SharedStates.shutdown();
+        });
+
+        // Warm shared state when players join, free it when they leave, and sweep idle state once a minute
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            SharedStates.forConfig(CONFIG).onJoin(handler.getPlayer().getUuid());
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            SharedStates.forConfig(CONFIG).onLeave(handler.getPlayer().getUuid());
+            AiCommand.onLeave(handler.getPlayer().getUuid());
+        });
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            if (server.getTicks() % 1200 == 0)
+                SharedStates.forConfig(CONFIG).evictIdle();
+        });
+
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             AiCommand.register(dispatcher);
         });
 
+        // Opt-in "@ai ..." chat mode; fires as the message starts being broadcast
+        ServerMessageEvents.CHAT_MESSAGE.register((message, sender, params) -> {
+            ChatTrigger.onChatMessage(message, sender);
+        });
+
         LOGGER.info("AI Chat initialized.");
     }
 
@@ -65,7 +102,7 @@ public class FabricAiChatMod implements DedicatedServerModInitializer {
                 LOGGER.info("Created default config at {}", cfgFile.getAbsolutePath());
             } else {
                 try (FileReader r = new FileReader(cfgFile)) {
-                    CONFIG = GSON.fromJson(r, ModConfig.class);
+                    CONFIG = ModConfig.read(GSON, r);
                 }
                 if (CONFIG == null)
                     CONFIG = ModConfig.defaultConfig();
@@ -74,5 +111,6 @@ public class FabricAiChatMod implements DedicatedServerModInitializer {
             LOGGER.error("Failed to load config", e);
             CONFIG = ModConfig.defaultConfig();
         }
+        InteractionLog.configure(server.getRunDirectory().resolve("logs").resolve("ai-chat"), CONFIG);
     }
 }
\ No newline at end of file
@@ -4,8 +4,14 @@ import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import dev.charlielarson.ai_chat.FabricAiChatMod;
 import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.fastpath.FastPathIndex;
 import dev.charlielarson.ai_chat.llm.*;
-import dev.charlielarson.ai_chat.util.RateLimiter;
+import dev.charlielarson.ai_chat.llm.local.LocalBenchmark;
+import dev.charlielarson.ai_chat.llm.local.LocalProvider;
+import dev.charlielarson.ai_chat.state.SharedState;
+import dev.charlielarson.ai_chat.state.SharedStates;
+import dev.charlielarson.ai_chat.util.InteractionLog;
+import dev.charlielarson.ai_chat.util.SentenceChunker;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
@@ -15,15 +21,10 @@ import java.util.*;
 import java.util.concurrent.*;
 
 public class AiCommand {
-    private static final Map<UUID, Deque<ChatMessage>> history = new ConcurrentHashMap<>();
-    private static RateLimiter limiter;
+    // Last service level each player was told about; cleared when service is back to normal
+    private static final Map<UUID, DegradationController.Level> announced = new ConcurrentHashMap<>();
 
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
-        ModConfig cfg = FabricAiChatMod.getConfig();
-        if (cfg == null)
-            cfg = ModConfig.defaultConfig();
-        limiter = new RateLimiter(Math.max(0, cfg.cooldownSeconds));
-
         dispatcher.register(CommandManager.literal("ai")
                 .then(CommandManager.literal("ask")
                         .then(CommandManager.argument("message", StringArgumentType.greedyString())
@@ -35,67 +36,132 @@ public class AiCommand {
                                 })))
                 .then(CommandManager.literal("reset").executes(ctx -> {
                     UUID id = getSenderId(ctx.getSource());
-                    history.remove(id);
+                    state().clearHistory(id);
                     ctx.getSource().sendFeedback(() -> Text.literal("AI history cleared."), false);
                     return 1;
                 }))
                 .then(CommandManager.literal("reload").requires(s -> s.hasPermissionLevel(3))
                         .executes(ctx -> {
                             FabricAiChatMod.reloadConfig();
-                            limiter = new RateLimiter(FabricAiChatMod.getConfig().cooldownSeconds);
                             ctx.getSource().sendFeedback(() -> Text.literal("Fabric AI Chat config reloaded."), true);
                             return 1;
+                        }))
+                .then(CommandManager.literal("stats").requires(s -> s.hasPermissionLevel(3))
+                        .executes(ctx -> {
+                            ctx.getSource().sendFeedback(() -> Text.literal(
+                                    TransportStats.summary() + "\n" + RoutingProvider.summary() + "\n"
+                                            + SemanticCacheProvider.summary() + "\n"
+                                            + InteractionLog.summary() + "\n"
+                                            + DegradationController.summary() + "\n"
+                                            + LocalProvider.summary() + "\n"
+                                            + state().summary()), false);
+                            return 1;
+                        }))
+                .then(CommandManager.literal("bench").requires(s -> s.hasPermissionLevel(3))
+                        .executes(ctx -> {
+                            bench(ctx.getSource());
+                            return 1;
                         })));
     }
 
-    private static void ask(ServerCommandSource src, String userMsg) {
-        // Ensure limiter/config exist
+    /**
+     * Compares the local model with Ollama; takes seconds to minutes, so it
+     * runs off-thread like a normal request.
+     */
+    private static void bench(ServerCommandSource src) {
+        ModConfig cfg = FabricAiChatMod.getConfig();
+        if (cfg == null || cfg.localModelPath == null || cfg.localModelPath.isBlank()) {
+            src.sendError(Text.literal("Set localModelPath to benchmark the local model."));
+            return;
+        }
+        src.sendFeedback(() -> Text.literal("\u00a77[AI] Benchmarking local model…"), false);
+        CompletableFuture.runAsync(() -> {
+            try {
+                for (String line : LocalBenchmark.run(cfg))
+                    src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + line), false);
+            } catch (Exception e) {
+                FabricAiChatMod.LOGGER.warn("AI benchmark failed: {}", e.toString());
+                src.sendError(Text.literal("AI benchmark failed: " + e.getMessage()));
+            }
+        });
+    }
+
+    static void ask(ServerCommandSource src, String userMsg) {
+        // Ensure config exists
         ModConfig cfg = FabricAiChatMod.getConfig();
         if (cfg == null)
             cfg = ModConfig.defaultConfig();
-        if (limiter == null)
-            limiter = new RateLimiter(Math.max(0, cfg.cooldownSeconds));
+        SharedState state = SharedStates.forConfig(cfg);
 
         UUID id = getSenderId(src);
-        if (!limiter.tryAcquire(id)) {
-            long remain = limiter.remaining(id);
+        if (!state.tryAcquire(id)) {
+            long remain = state.remaining(id);
             src.sendError(Text.literal("You're talking too fast. Try again in " + remain + "s."));
             return;
         }
 
+        // Pure lookups are answered from server registries without a model call
+        if (cfg.fastPathEnabled) {
+            String fast = FastPathIndex.tryAnswer(userMsg);
+            if (fast != null) {
+                FabricAiChatMod.LOGGER.debug("AI fast-path hit for \"{}\"", userMsg);
+                logInteraction(src, "fast-path", null, 0, null, "fast_path");
+                state.appendExchange(id, userMsg, fast);
+                src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + fast), false);
+                return;
+            }
+        }
+
+        DegradationController.Level level = DegradationController.check(cfg);
+        announceLevel(src, id, level);
+        if (level == DegradationController.Level.CACHE_ONLY) {
+            answerFromCache(src, cfg, state, id, userMsg);
+            return;
+        }
+
         src.sendFeedback(() -> Text.literal("§7[AI] Thinking…"), false);
 
         // Build conversation
         final ModConfig cfgFinal = cfg;
-        Deque<ChatMessage> h = history.computeIfAbsent(id, k -> new ArrayDeque<>());
         List<ChatMessage> messages = new ArrayList<>();
         messages.add(new ChatMessage("system", cfg.systemPrompt));
-        for (ChatMessage m : h)
-            messages.add(m);
+        state.loadHistory(id, messages);
+        if (level.ordinal() >= DegradationController.Level.SHORT_HISTORY.ordinal()) {
+            // Keep the system prompt and only the most recent exchange
+            while (messages.size() > 3)
+                messages.remove(1);
+        }
         messages.add(new ChatMessage("user", userMsg));
+        int maxTokens = cfg.maxTokens;
+        if (level.ordinal() >= DegradationController.Level.REDUCED_TOKENS.ordinal()) {
+            int reduced = cfg.degradedMaxTokens > 0 ? cfg.degradedMaxTokens : 128;
+            maxTokens = maxTokens > 0 ? Math.min(maxTokens, reduced) : reduced;
+        }
+        final int maxTokensFinal = maxTokens;
 
         // Choose provider
         LlmProvider provider;
         try {
-            if ("ollama".equalsIgnoreCase(cfgFinal.provider)) {
-                provider = new OllamaProvider(cfgFinal.ollamaBaseUrl, cfgFinal.ollamaModel, cfgFinal);
-                FabricAiChatMod.LOGGER.debug("AI provider=ollama baseUrl={} model={}", cfgFinal.ollamaBaseUrl,
-                        cfgFinal.ollamaModel);
-            } else {
-                provider = new OpenAiProvider(cfgFinal.openaiApiBase, cfgFinal.openaiApiKey, cfgFinal.openaiModel,
-                        cfgFinal);
-                FabricAiChatMod.LOGGER.debug("AI provider=openai apiBase={} model={}", cfgFinal.openaiApiBase,
-                        cfgFinal.openaiModel);
-            }
+            provider = Providers.forConfig(cfgFinal);
         } catch (Exception e) {
             src.sendError(Text.literal("AI provider error: " + e.getMessage()));
             return;
         }
 
+        // Counted from here, so requests still waiting for a pool thread are part of the load
+        DegradationController.begin(cfgFinal);
+        long queuedAt = System.nanoTime();
+
         // Call model off-thread to avoid blocking server tick
         CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            // In-process models stream their reply; players get it a sentence or line at a time
+            SentenceChunker chunker = new SentenceChunker(
+                    chunk -> src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + chunk), false));
             try {
-                LlmProvider.Result res = provider.chat(messages, cfgFinal.temperature, cfgFinal.maxTokens);
+                LlmProvider.Result res = provider.chat(messages, cfgFinal.temperature, maxTokensFinal, chunker);
+                boolean streamed = chunker.finish();
+                long latencyMs = (System.nanoTime() - start) / 1_000_000;
                 String reply = res.text();
                 ToolCall tool = res.tool();
                 // Normalize command text (records are immutable)
@@ -111,20 +177,18 @@ public class AiCommand {
                         normalizedCmd,
                         (normalizedCmd != null ? "" : " (null)"));
 
-                FabricAiChatMod.LOGGER.debug("AI reply length={} preview=\"{}\"", reply != null ? reply.length() : -1,
-                        reply != null ? reply.substring(0, Math.min(200, reply.length())).replaceAll("\n", "\\n")
-                                : "null");
+                if (FabricAiChatMod.LOGGER.isDebugEnabled()) {
+                    FabricAiChatMod.LOGGER.debug("AI reply length={} preview=\"{}\"", reply != null ? reply.length() : -1,
+                            reply != null ? reply.substring(0, Math.min(200, reply.length())).replaceAll("\n", "\\n")
+                                    : "null");
+                }
 
-                // Update history (trim)
-                h.addLast(new ChatMessage("user", userMsg));
+                // Update history (the ring drops the oldest pair itself)
                 if (tool != null && "run_command".equalsIgnoreCase(tool.tool())) {
                     String cmdForHistory = normalizedCmd != null ? normalizedCmd : "<missing>";
-                    h.addLast(new ChatMessage("assistant", "<tool:run_command /" + cmdForHistory + ">"));
+                    state.appendExchange(id, userMsg, "<tool:run_command /" + cmdForHistory + ">");
                 } else {
-                    h.addLast(new ChatMessage("assistant", reply != null ? reply : ""));
-                }
-                while (h.size() > cfgFinal.maxHistory * 2) { // pairs of user+assistant
-                    h.pollFirst();
+                    state.appendExchange(id, userMsg, reply != null ? reply : "");
                 }
 
                 if (tool != null && "run_command".equalsIgnoreCase(tool.tool()) && cfgFinal.allowRunCommands) {
@@ -133,6 +197,7 @@ public class AiCommand {
                     String cmd = normalizedCmd != null ? normalizedCmd : "";
                     if (cmd.isEmpty()) {
                         FabricAiChatMod.LOGGER.debug("AI tool call rejected: empty command");
+                        logInteraction(src, cfgFinal.provider, res, latencyMs, "", "tool_empty");
                         src.sendError(Text.literal("AI requested a command, but it was empty."));
                         if (reply != null && !reply.isBlank()) {
                             src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + reply), false);
@@ -145,6 +210,7 @@ public class AiCommand {
                             || cfgFinal.commandAllowlist.stream().anyMatch(prefix -> cmd.startsWith(prefix));
                     if (!allowed) {
                         FabricAiChatMod.LOGGER.debug("AI tool call rejected by allowlist: {}", cmd);
+                        logInteraction(src, cfgFinal.provider, res, latencyMs, cmd, "tool_denied");
                         src.sendError(Text.literal("Command '/" + cmd + "' not allowed."));
                         if (reply != null && !reply.isBlank()) {
                             src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + reply), false);
@@ -152,15 +218,19 @@ public class AiCommand {
                         return;
                     }
 
+                    logInteraction(src, cfgFinal.provider, res, latencyMs, cmd, "tool_run");
+
                     // Execute on server thread
                     MinecraftServer server = FabricAiChatMod.getServer();
                     if (server != null) {
                         server.execute(() -> {
                             try {
                                 // Inform the user and the logs what will be run
-                                FabricAiChatMod.LOGGER.debug("Executing AI command as {}: /{}",
-                                        (src.getEntity() != null ? src.getEntity().getName().getString() : "server"),
-                                        cmd);
+                                if (FabricAiChatMod.LOGGER.isDebugEnabled()) {
+                                    FabricAiChatMod.LOGGER.debug("Executing AI command as {}: /{}",
+                                            (src.getEntity() != null ? src.getEntity().getName().getString() : "server"),
+                                            cmd);
+                                }
                                 src.sendFeedback(() -> Text.literal("\u00a77[AI] Executing: /" + cmd), false);
 
                                 // Execute with player's context when available so selectors like @s work
@@ -182,15 +252,88 @@ public class AiCommand {
                     }
                 } else {
                     // No tool (or tools not allowed): send normal chat reply
-                    src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + (reply != null ? reply : "")), false);
+                    logInteraction(src, cfgFinal.provider, res, latencyMs, null, "reply");
+                    if (!streamed)
+                        src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + (reply != null ? reply : "")), false);
                 }
             } catch (Exception e) {
                 FabricAiChatMod.LOGGER.warn("AI error while processing request: {}", e.toString());
+                logInteraction(src, cfgFinal.provider, null, (System.nanoTime() - start) / 1_000_000, null,
+                        "error: " + e.getClass().getSimpleName());
                 src.sendError(Text.literal("AI error: " + e.getMessage()));
             }
+        }).whenComplete((ignored, error) -> DegradationController.end(cfgFinal,
+                (System.nanoTime() - queuedAt) / 1_000_000));
+    }
+
+    /**
+     * Cache-only service level: answers from the exact and semantic caches
+     * (the cache decides whether the question fits without its history) and
+     * sheds everything else. The lookup may embed the question, so it runs
+     * off-thread.
+     */
+    private static void answerFromCache(ServerCommandSource src, ModConfig cfg, SharedState state, UUID id,
+            String userMsg) {
+        LlmProvider provider;
+        try {
+            provider = Providers.forConfig(cfg);
+        } catch (Exception e) {
+            provider = null;
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(new ChatMessage("system", cfg.systemPrompt));
+        state.loadHistory(id, messages);
+        messages.add(new ChatMessage("user", userMsg));
+        SemanticCacheProvider cache = provider instanceof SemanticCacheProvider c ? c : null;
+        CompletableFuture.runAsync(() -> {
+            String cached = cache != null ? cache.cachedAnswer(messages) : null;
+            if (cached != null) {
+                logInteraction(src, "cache", null, 0, null, "cache_only");
+                src.sendFeedback(() -> Text.literal("\u00a7b[AI] " + cached), false);
+            } else {
+                logInteraction(src, cfg.provider, null, 0, null, "shed");
+                src.sendError(Text.literal("The AI is overloaded right now. Please try again in a minute."));
+            }
         });
     }
 
+    /**
+     * Forgets per-player command state when the player disconnects.
+     */
+    public static void onLeave(UUID id) {
+        announced.remove(id);
+    }
+
+    /**
+     * Tells a player once per level change that service is degraded.
+     */
+    private static void announceLevel(ServerCommandSource src, UUID id, DegradationController.Level level) {
+        if (level == DegradationController.Level.NORMAL) {
+            if (!announced.isEmpty())
+                announced.clear();
+            return;
+        }
+        if (announced.put(id, level) != level) {
+            src.sendFeedback(() -> Text.literal("\u00a7e[AI] The server is busy: " + level.description + "."),
+                    false);
+        }
+    }
+
+    private static SharedState state() {
+        ModConfig cfg = FabricAiChatMod.getConfig();
+        return SharedStates.forConfig(cfg != null ? cfg : ModConfig.defaultConfig());
+    }
+
+    private static void logInteraction(ServerCommandSource src, String provider, LlmProvider.Result res,
+            long latencyMs, String toolCall, String outcome) {
+        if (!InteractionLog.isEnabled())
+            return;
+        InteractionLog.record(new InteractionLog.Entry(System.currentTimeMillis(), src.getName(), provider,
+                res != null ? res.model() : null, latencyMs,
+                res != null ? res.promptTokens() : -1, res != null ? res.completionTokens() : -1,
+                toolCall, outcome));
+    }
+
     private static UUID getSenderId(ServerCommandSource src) {
         try {
             return src.getPlayer() != null ? src.getPlayer().getUuid() : new UUID(0, 0);
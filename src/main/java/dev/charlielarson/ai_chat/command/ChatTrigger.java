@@ -0,0 +1,104 @@
+package dev.charlielarson.ai_chat.command;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+import net.minecraft.network.message.SignedMessage;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.List;
+
+/**
+ * Lets players address the assistant in normal chat ("@ai how do I ...").
+ * Every chat message on the server passes through {@link #onChatMessage}, so
+ * the prefilter does not allocate: triggers are compiled to lower-case char
+ * arrays once per config and matched in place. The listener is called at the
+ * start of the broadcast, before the message reaches other players; matching
+ * messages are handed to the normal ask pipeline as a separate server task,
+ * so the chat line is still delivered before the assistant's first reply.
+ */
+public final class ChatTrigger {
+    // Used when an older config file has no chatTriggers entry
+    private static final List<String> DEFAULT_TRIGGERS = List.of("@ai");
+
+    private static char[][] triggers = new char[0][];
+    private static boolean[] firstChars = new boolean[128];
+    private static List<String> compiledFrom;
+
+    private ChatTrigger() {
+    }
+
+    public static void onChatMessage(SignedMessage message, ServerPlayerEntity sender) {
+        ModConfig cfg = FabricAiChatMod.getConfig();
+        if (cfg == null || !cfg.chatTriggerEnabled)
+            return;
+        List<String> configured = cfg.chatTriggers != null ? cfg.chatTriggers : DEFAULT_TRIGGERS;
+        if (configured != compiledFrom)
+            compile(configured);
+        String text = message.getSignedContent();
+        int end = match(text);
+        if (end < 0)
+            return;
+        String question = text.substring(end).trim();
+        if (question.isEmpty())
+            return;
+        sender.getServer().execute(() -> AiCommand.ask(sender.getCommandSource(), question));
+    }
+
+    /**
+     * Returns the index just past a leading trigger, or -1 if the text does not
+     * start with one. A trigger must be followed by whitespace, punctuation or
+     * the end of the message, so "@aiden" does not match "@ai".
+     */
+    static int match(String text) {
+        int len = text.length();
+        int i = 0;
+        while (i < len && text.charAt(i) == ' ')
+            i++;
+        if (i == len)
+            return -1;
+        char first = Character.toLowerCase(text.charAt(i));
+        if (first >= 128 || !firstChars[first])
+            return -1;
+        outer: for (char[] t : triggers) {
+            int tl = t.length;
+            if (i + tl > len)
+                continue;
+            for (int k = 0; k < tl; k++) {
+                if (Character.toLowerCase(text.charAt(i + k)) != t[k])
+                    continue outer;
+            }
+            int after = i + tl;
+            if (after == len)
+                return after;
+            char c = text.charAt(after);
+            if (Character.isWhitespace(c) || c == ',' || c == ':')
+                return after + 1;
+        }
+        return -1;
+    }
+
+    private static synchronized void compile(List<String> configured) {
+        boolean[] first = new boolean[128];
+        char[][] compiled = configured == null ? new char[0][]
+                : configured.stream()
+                        .filter(t -> t != null && !t.isBlank())
+                        .map(ChatTrigger::lowerChars)
+                        .filter(t -> t[0] < 128)
+                        .toArray(char[][]::new);
+        for (char[] t : compiled)
+            first[t[0]] = true;
+        triggers = compiled;
+        firstChars = first;
+        compiledFrom = configured;
+    }
+
+    /**
+     * Lower-cases per char, exactly as {@link #match} compares the message.
+     */
+    private static char[] lowerChars(String trigger) {
+        char[] c = trigger.trim().toCharArray();
+        for (int i = 0; i < c.length; i++)
+            c[i] = Character.toLowerCase(c[i]);
+        return c;
+    }
+}
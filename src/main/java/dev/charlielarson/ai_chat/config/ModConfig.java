@@ -1,27 +1,82 @@
 package dev.charlielarson.ai_chat.config;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.Reader;
 import java.util.List;
+import java.util.Map;
 
 public class ModConfig {
-    public String provider; // "openai" or "ollama"
+    public String provider; // "openai", "ollama", "local" or "replay"
 
     // OpenAI
     public String openaiApiBase; // e.g. "https://api.openai.com/v1"
     public String openaiApiKey; // OPTIONAL: if empty, read from env OPENAI_API_KEY
     public String openaiModel; // e.g. "gpt-4o-mini" or "gpt-4o"
+    public String openaiEmbeddingModel; // used by the semantic cache, e.g. "text-embedding-3-small"
+    public String openaiSmallModel; // OPTIONAL: fast model for simple requests when routingEnabled
 
     // Ollama
     public String ollamaBaseUrl; // e.g. "http://localhost:11434"
     public String ollamaModel; // e.g. "llama3.1:8b"
+    public String ollamaEmbeddingModel; // used by the semantic cache, e.g. "nomic-embed-text"
+    public String ollamaSmallModel; // OPTIONAL: fast model for simple requests when routingEnabled, e.g. "llama3.2:3b"
+
+    // Local (in-process) inference
+    public String localModelPath; // GGUF file (llama/qwen2, F16/Q8_0/Q4_0 with Q6_K output allowed; not K-quant files such as Q4_K_M), e.g. "models/qwen2.5-0.5b-instruct-q8_0.gguf"
+    public int localThreads; // inference threads; 0 = all cores
+    public int localContextLength; // tokens per session; 0 = min(model's, 2048)
+    public int localMaxSessions; // KV caches kept for reuse across turns (default 4)
+
+    // Model routing
+    public boolean routingEnabled; // score each request and send simple ones to the small model
+    public int routingThreshold; // requests scoring at or above this go to the large model (default 4)
+
+    // Semantic response cache
+    public boolean semanticCacheEnabled; // answer paraphrased repeat questions from memory via embeddings
+    public double semanticCacheThreshold; // minimum cosine similarity for a hit (default 0.92)
+    public int semanticCacheMaxEntries; // least recently used entries are evicted beyond this (default 512)
+
+    // Load-aware degradation
+    public boolean degradeEnabled; // step down to cheaper service levels when the backend falls behind
+    public int degradeQueueStep; // each this-many requests in flight raises the level by one (default 4)
+    public int degradeLatencyStepMs; // each this-many ms of average latency raises the level by one (default 10000)
+    public int degradeRecoverSeconds; // time at a level before stepping back down (default 30)
+    public int degradedMaxTokens; // maxTokens cap once degraded (default 128)
+
+    // Shared state (history, response cache, cooldowns) for multi-server setups
+    public String sharedStateBackend; // "local" (default) or "redis"
+    public String redisHost; // any Redis-protocol store (Redis, Valkey, KeyDB)
+    public int redisPort; // default 6379
+    public String redisPassword; // OPTIONAL
+    public int redisDatabase; // SELECT index; 0 = default
+    public String redisKeyPrefix; // namespace for all keys, e.g. "ai-chat:"
+    public int redisHistoryTtlMinutes; // how long history survives without activity (default 1440)
+    public int redisResponseTtlMinutes; // how long shared cached answers live (default 60)
+    public int sharedStateFlushMillis; // writes are batched and pipelined at this interval (default 50)
+
+    // Record/replay (performance testing)
+    public String recordCorpusPath; // OPTIONAL: append every backend call to this corpus file
+    public String replayCorpusPath; // corpus served when provider is "replay"
+    public double replayLatencyScale; // multiply recorded latencies; 0 = answer immediately
 
     // Behavior
     public String systemPrompt; // server instructions
     public boolean allowRunCommands; // if true, model may request server commands
     public List<String> commandAllowlist; // optional allowlist of command prefixes, e.g. ["say", "time set", "give"]
     public int cooldownSeconds; // per-player rate limit
+    public boolean chatTriggerEnabled; // also answer normal chat messages starting with a trigger
+    public List<String> chatTriggers; // trigger prefixes for chat mode, e.g. ["@ai"]
     public int maxHistory; // number of recent exchanges to keep per player
+    public boolean historyCompressCold; // deflate older long messages in history
+    public boolean historyClearOnDisconnect; // drop a player's history when they leave (cooldowns run out as usual)
+    public int historyIdleTtlMinutes; // drop history unused for this long; 0 = keep until disconnect/restart
     public double temperature; // sampling temperature
     public int maxTokens; // max tokens for completion (if supported)
+    public boolean fastPathEnabled; // answer recipe/item/enchantment/command lookups locally without the model
 
     // HTTP timeouts (seconds). If <= 0, provider will use built-in defaults.
     public int httpConnectTimeoutSec; // TCP connect timeout
@@ -29,6 +84,36 @@ public class ModConfig {
     public int httpWriteTimeoutSec; // socket write timeout
     public int httpCallTimeoutSec; // total call deadline; 0 = no limit
 
+    // HTTP transport. Numeric values <= 0 use built-in defaults.
+    public String httpProtocol; // "auto" (HTTP/2 over TLS when offered), "http1", or "h2c" (cleartext HTTP/2, local servers only)
+    public boolean httpGzipRequests; // gzip request bodies (server must accept Content-Encoding: gzip)
+    public int httpGzipMinBytes; // only compress bodies at least this large
+    public int httpMaxIdleConnections; // idle connections kept in the pool (default 5)
+    public int httpKeepAliveSec; // how long idle connections are kept (default 300)
+    public int httpDnsCacheSec; // cache DNS answers for this long; 0 = JVM default
+
+    // Interaction log (logs/ai-chat/interactions.log, one JSON record per request)
+    public boolean interactionLogEnabled; // write structured records of every request
+    public int interactionLogMaxMb; // rotate when the file reaches this size (default 16)
+    public int interactionLogRotateHours; // rotate at least this often (default 24)
+    public boolean interactionLogCompress; // gzip rotated files
+    public int interactionLogMaxFiles; // rotated files to keep (default 10)
+
+    /**
+     * Reads a config file. Options the file does not mention (it was written
+     * by an older version) keep their {@link #defaultConfig()} values rather
+     * than Gson's false/0/null. Returns null for an empty file.
+     */
+    public static ModConfig read(Gson gson, Reader in) {
+        JsonElement file = JsonParser.parseReader(in);
+        if (!file.isJsonObject())
+            return null;
+        JsonObject merged = gson.toJsonTree(defaultConfig()).getAsJsonObject();
+        for (Map.Entry<String, JsonElement> e : file.getAsJsonObject().entrySet())
+            merged.add(e.getKey(), e.getValue());
+        return gson.fromJson(merged, ModConfig.class);
+    }
+
     public static ModConfig defaultConfig() {
         ModConfig c = new ModConfig();
         c.provider = "openai";
@@ -37,18 +122,65 @@ public class ModConfig {
         c.openaiModel = "gpt-4o-mini";
         c.ollamaBaseUrl = "http://localhost:11434";
         c.ollamaModel = "llama3.1:8b";
+        c.openaiEmbeddingModel = "text-embedding-3-small";
+        c.ollamaEmbeddingModel = "nomic-embed-text";
+        c.openaiSmallModel = "";
+        c.localModelPath = "";
+        c.localThreads = 0;
+        c.localContextLength = 2048;
+        c.localMaxSessions = 4;
+        c.ollamaSmallModel = "";
+        c.routingEnabled = false;
+        c.routingThreshold = 4;
+        c.semanticCacheEnabled = false;
+        c.semanticCacheThreshold = 0.92;
+        c.semanticCacheMaxEntries = 512;
+        c.degradeEnabled = false;
+        c.degradeQueueStep = 4;
+        c.degradeLatencyStepMs = 10000;
+        c.degradeRecoverSeconds = 30;
+        c.degradedMaxTokens = 128;
+        c.sharedStateBackend = "local";
+        c.redisHost = "localhost";
+        c.redisPort = 6379;
+        c.redisPassword = "";
+        c.redisDatabase = 0;
+        c.redisKeyPrefix = "ai-chat:";
+        c.redisHistoryTtlMinutes = 1440;
+        c.redisResponseTtlMinutes = 60;
+        c.sharedStateFlushMillis = 50;
+        c.recordCorpusPath = "";
+        c.replayCorpusPath = "";
+        c.replayLatencyScale = 1.0;
         c.systemPrompt = "You are the helpful assistant of this Minecraft server. Assume all requests are related to the video game Minecraft: Java Edition. If a request requires running a server command, use the included tool `run_command`. Otherwise, answer their request normally. Keep answers short and avoid markdown by keeping it conversational.";
         c.allowRunCommands = false;
         c.commandAllowlist = List.of();
         c.cooldownSeconds = 5;
+        c.chatTriggerEnabled = false;
+        c.chatTriggers = List.of("@ai");
         c.maxHistory = 10;
+        c.historyCompressCold = true;
+        c.historyClearOnDisconnect = true;
+        c.historyIdleTtlMinutes = 30;
         c.temperature = 0.4;
         c.maxTokens = 512;
+        c.fastPathEnabled = true;
         // Defaults tuned for on-LAN Ollama; increase if your model is slow
         c.httpConnectTimeoutSec = 10;
         c.httpReadTimeoutSec = 120;
         c.httpWriteTimeoutSec = 120;
         c.httpCallTimeoutSec = 300;
+        c.httpProtocol = "auto";
+        c.httpGzipRequests = false;
+        c.httpGzipMinBytes = 4096;
+        c.httpMaxIdleConnections = 5;
+        c.httpKeepAliveSec = 300;
+        c.httpDnsCacheSec = 0;
+        c.interactionLogEnabled = false;
+        c.interactionLogMaxMb = 16;
+        c.interactionLogRotateHours = 24;
+        c.interactionLogCompress = true;
+        c.interactionLogMaxFiles = 10;
         return c;
     }
 }
\ No newline at end of file
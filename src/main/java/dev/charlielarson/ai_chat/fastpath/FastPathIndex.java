@@ -0,0 +1,217 @@
+package dev.charlielarson.ai_chat.fastpath;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.tree.CommandNode;
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.recipe.Ingredient;
+import net.minecraft.recipe.Recipe;
+import net.minecraft.recipe.RecipeEntry;
+import net.minecraft.recipe.ShapedRecipe;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.util.Identifier;
+
+import java.util.*;
+
+/**
+ * Answers pure lookup questions (recipes, item IDs, enchantment levels, command
+ * syntax) straight from the running server's registries, without calling the
+ * model. The index is built once at server start and rebuilt after every
+ * datapack reload; lookups are a regex match plus a couple of map gets.
+ */
+public class FastPathIndex {
+    private static final int MAX_RECIPES_PER_ITEM = 3;
+    private static final int MAX_USAGE_LINES = 8;
+
+    private static volatile FastPathIndex current = new FastPathIndex();
+
+    // All keys are normalized names (see normalize)
+    private final Map<String, String> recipes = new HashMap<>();
+    private final Map<String, String> itemIds = new HashMap<>();
+    private final Map<String, String> maxLevels = new HashMap<>();
+    private final Map<String, String> commands = new HashMap<>();
+
+    private FastPathIndex() {
+    }
+
+    /**
+     * Rebuild the index from the server's current registries and swap it in.
+     * Must be called on the server thread.
+     */
+    public static void rebuild(MinecraftServer server) {
+        long start = System.nanoTime();
+        FastPathIndex idx = new FastPathIndex();
+        try {
+            idx.indexItems();
+            idx.indexRecipes(server);
+            idx.indexEnchantments(server);
+            idx.indexCommands(server);
+        } catch (Exception e) {
+            FabricAiChatMod.LOGGER.warn("Failed to build fast-path index: {}", e.toString());
+            return;
+        }
+        current = idx;
+        FabricAiChatMod.LOGGER.info("Fast-path index built in {} ms ({} items, {} recipes, {} enchantments, {} commands)",
+                (System.nanoTime() - start) / 1_000_000, idx.itemIds.size(), idx.recipes.size(),
+                idx.maxLevels.size(), idx.commands.size());
+    }
+
+    /**
+     * Returns a ready-made answer when the question is a lookup we can serve
+     * locally, or null when it should go to the model.
+     */
+    public static String tryAnswer(String question) {
+        if (question == null || question.length() > 120)
+            return null;
+        String q = LookupIntent.normalize(question);
+        if (q.isEmpty())
+            return null;
+        FastPathIndex idx = current;
+        String a = lookup(LookupIntent.RECIPE, idx.recipes, q);
+        if (a == null)
+            a = lookup(LookupIntent.ITEM_ID, idx.itemIds, q);
+        if (a == null)
+            a = lookup(LookupIntent.MAX_LEVEL, idx.maxLevels, q);
+        if (a == null)
+            a = lookup(LookupIntent.COMMAND, idx.commands, q);
+        return a;
+    }
+
+    private static String lookup(LookupIntent intent, Map<String, String> table, String q) {
+        if (table.isEmpty())
+            return null;
+        String subject = intent.subject(q);
+        if (subject == null)
+            return null;
+        String key = normalize(subject);
+        String hit = table.get(key);
+        // Tolerate simple plurals ("beds", "torches")
+        if (hit == null && key.endsWith("es"))
+            hit = table.get(key.substring(0, key.length() - 2));
+        if (hit == null && key.endsWith("s"))
+            hit = table.get(key.substring(0, key.length() - 1));
+        return hit;
+    }
+
+    private void indexItems() {
+        for (Item item : Registries.ITEM) {
+            Identifier id = Registries.ITEM.getId(item);
+            String name = item.getName().getString();
+            String answer = name + " has the item ID " + id + ".";
+            putNames(itemIds, id, name, answer);
+        }
+    }
+
+    private void indexRecipes(MinecraftServer server) {
+        Map<Item, List<String>> byResult = new HashMap<>();
+        for (RecipeEntry<?> entry : server.getRecipeManager().values()) {
+            Recipe<?> recipe = entry.value();
+            ItemStack out;
+            try {
+                out = recipe.getResult(server.getRegistryManager());
+            } catch (Exception e) {
+                continue;
+            }
+            if (out == null || out.isEmpty())
+                continue;
+            List<String> list = byResult.computeIfAbsent(out.getItem(), k -> new ArrayList<>());
+            if (list.size() < MAX_RECIPES_PER_ITEM) {
+                String desc = describeRecipe(recipe, out);
+                if (desc != null)
+                    list.add(desc);
+            }
+        }
+        for (Map.Entry<Item, List<String>> e : byResult.entrySet()) {
+            if (e.getValue().isEmpty())
+                continue;
+            Item item = e.getKey();
+            String answer = String.join(" Or: ", e.getValue());
+            putNames(recipes, Registries.ITEM.getId(item), item.getName().getString(), answer);
+        }
+    }
+
+    private static String describeRecipe(Recipe<?> recipe, ItemStack out) {
+        Identifier typeId = Registries.RECIPE_TYPE.getId(recipe.getType());
+        String type = typeId != null ? typeId.getPath().replace('_', ' ') : "recipe";
+        // Group identical ingredients so "3 × Oak Planks" reads better than listing each slot
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Ingredient ing : recipe.getIngredients()) {
+            ItemStack[] options = ing.getMatchingStacks();
+            if (options.length == 0)
+                continue;
+            String name = options[0].getName().getString();
+            if (options.length > 1)
+                name += " (or " + (options.length - 1) + " similar)";
+            counts.merge(name, 1, Integer::sum);
+        }
+        if (counts.isEmpty())
+            return null;
+        StringBuilder sb = new StringBuilder();
+        sb.append(Character.toUpperCase(type.charAt(0))).append(type.substring(1));
+        if (recipe instanceof ShapedRecipe shaped)
+            sb.append(" (shaped ").append(shaped.getWidth()).append('x').append(shaped.getHeight()).append(')');
+        sb.append(": ");
+        boolean first = true;
+        for (Map.Entry<String, Integer> c : counts.entrySet()) {
+            if (!first)
+                sb.append(", ");
+            first = false;
+            sb.append(c.getValue()).append(" × ").append(c.getKey());
+        }
+        sb.append(" → ").append(out.getCount()).append(" × ").append(out.getName().getString()).append('.');
+        return sb.toString();
+    }
+
+    private void indexEnchantments(MinecraftServer server) {
+        Registry<Enchantment> reg = server.getRegistryManager().get(RegistryKeys.ENCHANTMENT);
+        for (Enchantment ench : reg) {
+            Identifier id = reg.getId(ench);
+            if (id == null)
+                continue;
+            String name = ench.description().getString();
+            String answer = name + " (" + id + ") has a max level of " + ench.getMaxLevel() + ".";
+            putNames(maxLevels, id, name, answer);
+        }
+    }
+
+    private void indexCommands(MinecraftServer server) {
+        CommandDispatcher<ServerCommandSource> dispatcher = server.getCommandManager().getDispatcher();
+        // Usage is shown to any player, so only list what a non-op can run
+        ServerCommandSource src = server.getCommandSource().withLevel(0);
+        for (CommandNode<ServerCommandSource> child : dispatcher.getRoot().getChildren()) {
+            if (!child.canUse(src))
+                continue;
+            StringBuilder sb = new StringBuilder();
+            int lines = 0;
+            for (String usage : dispatcher.getSmartUsage(child, src).values()) {
+                if (lines++ >= MAX_USAGE_LINES) {
+                    sb.append("\n…");
+                    break;
+                }
+                sb.append(lines > 1 ? "\n" : "").append('/').append(child.getName()).append(' ').append(usage);
+            }
+            if (lines == 0)
+                sb.append('/').append(child.getName());
+            commands.put(normalize(child.getName()), "Usage:\n" + sb);
+        }
+    }
+
+    private static void putNames(Map<String, String> table, Identifier id, String displayName, String answer) {
+        table.putIfAbsent(normalize(displayName), answer);
+        table.putIfAbsent(normalize(id.getPath()), answer);
+        table.putIfAbsent(normalize(id.toString()), answer);
+    }
+
+    private static String normalize(String s) {
+        String n = s.toLowerCase(Locale.ROOT).trim();
+        if (n.startsWith("minecraft:"))
+            n = n.substring("minecraft:".length());
+        return n.replace('_', ' ').replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,69 @@
+package dev.charlielarson.ai_chat.fastpath;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The kinds of lookup question {@link FastPathIndex} can answer, and the
+ * phrasings that ask them. Patterns run on {@link #normalize}d questions.
+ */
+enum LookupIntent {
+    RECIPE(
+            "(?:how (?:do (?:i|you) |can i |to )?(?:craft|make)|(?:crafting )?recipe (?:for|of)) (.+)",
+            "(.+?) (?:crafting )?recipe"),
+    ITEM_ID(
+            "(?:item )?id (?:of|for) (.+)",
+            "(.+?) item id"),
+    MAX_LEVEL(
+            "max(?:imum)? level (?:of|for) (.+)",
+            "(.+?) max(?:imum)? level"),
+    COMMAND(
+            "(?:syntax|usage) (?:of|for) (?:the )?/?([a-z0-9_:-]+)(?: command)?",
+            "how (?:do (?:i|you) |to )use (?:the )?/([a-z0-9_:-]+)(?: command)?");
+
+    // Optional lead-in before any phrasing: "what's the ...", "show me the ...", "the ..."
+    private static final String ASK = "(?:(?:what(?:'s| is|s)|tell me|show me|give me) )?(?:the )?";
+
+    private final Pattern[] patterns;
+
+    LookupIntent(String... phrasings) {
+        patterns = new Pattern[phrasings.length];
+        for (int i = 0; i < phrasings.length; i++)
+            patterns[i] = Pattern.compile("^" + ASK + phrasings[i] + "$");
+    }
+
+    /**
+     * The name the question asks about, without a leading article, or null
+     * when the question is not this kind of lookup.
+     */
+    String subject(String question) {
+        for (Pattern p : patterns) {
+            Matcher m = p.matcher(question);
+            if (m.matches())
+                return stripArticle(m.group(1));
+        }
+        return null;
+    }
+
+    /**
+     * Lowercases, folds curly apostrophes, drops trailing punctuation and
+     * collapses whitespace.
+     */
+    static String normalize(String s) {
+        String q = s.trim().toLowerCase(Locale.ROOT).replace('’', '\'');
+        while (!q.isEmpty() && ".?!".indexOf(q.charAt(q.length() - 1)) >= 0)
+            q = q.substring(0, q.length() - 1);
+        return q.replaceAll("\\s+", " ").trim();
+    }
+
+    private static String stripArticle(String s) {
+        if (s.startsWith("a "))
+            return s.substring(2);
+        if (s.startsWith("an "))
+            return s.substring(3);
+        if (s.startsWith("the "))
+            return s.substring(4);
+        return s;
+    }
+}
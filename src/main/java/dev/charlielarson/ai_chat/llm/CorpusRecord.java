@@ -0,0 +1,172 @@
+package dev.charlielarson.ai_chat.llm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One recorded provider call, as stored by {@link RecordingProvider} and
+ * served by {@link ReplayProvider}. The on-disk form is a flat sequence of
+ * records; strings are length-prefixed UTF-8 and a length of -1 means null.
+ * <p>
+ * rawBody is the HTTP response body the result was parsed from and
+ * rawFormat says which parser it needs ({@link #OPENAI} or {@link #OLLAMA});
+ * both are null for backends without HTTP or bodies too large to keep.
+ */
+record CorpusRecord(long startedAtMillis, long latencyNanos, List<ChatMessage> messages, double temperature,
+        int maxTokens, LlmProvider.Result result, String error, String rawFormat, String rawBody) {
+
+    static final int MAGIC = 0x41494332; // "AIC2"
+    static final String OPENAI = "openai";
+    static final String OLLAMA = "ollama";
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(startedAtMillis);
+        out.writeLong(latencyNanos);
+        out.writeDouble(temperature);
+        out.writeInt(maxTokens);
+        out.writeInt(messages.size());
+        for (ChatMessage m : messages) {
+            writeString(out, m.role());
+            writeString(out, m.content());
+        }
+        out.writeBoolean(result != null);
+        if (result != null) {
+            writeString(out, result.text());
+            writeString(out, result.tool() != null ? result.tool().tool() : null);
+            writeString(out, result.tool() != null ? result.tool().command() : null);
+            writeString(out, result.model());
+            out.writeInt(result.promptTokens());
+            out.writeInt(result.completionTokens());
+        }
+        writeString(out, error);
+        writeString(out, rawFormat);
+        writeString(out, rawBody);
+    }
+
+    /**
+     * Reads the next record, or returns null at a clean end of stream.
+     */
+    static CorpusRecord read(DataInputStream in) throws IOException {
+        long startedAt;
+        try {
+            startedAt = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        long latency = in.readLong();
+        double temperature = in.readDouble();
+        int maxTokens = in.readInt();
+        int n = in.readInt();
+        List<ChatMessage> messages = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            messages.add(new ChatMessage(readString(in), readString(in)));
+        LlmProvider.Result result = null;
+        if (in.readBoolean()) {
+            String text = readString(in);
+            String tool = readString(in);
+            String command = readString(in);
+            String model = readString(in);
+            int promptTokens = in.readInt();
+            int completionTokens = in.readInt();
+            result = new LlmProvider.Result(text, tool != null ? new ToolCall(tool, command) : null, model,
+                    promptTokens, completionTokens);
+        }
+        String error = readString(in);
+        String rawFormat = readString(in);
+        String rawBody = readString(in);
+        return new CorpusRecord(startedAt, latency, messages, temperature, maxTokens, result, error, rawFormat,
+                rawBody);
+    }
+
+    /**
+     * Reads every complete record of a corpus file into out (which may be
+     * null to only validate). A record cut short by a crash mid-append ends
+     * the corpus instead of failing it. Returns the length in bytes of the
+     * complete part, header included.
+     */
+    static long readAll(Path path, List<CorpusRecord> out) throws IOException {
+        try (CountingInput counter = new CountingInput(new BufferedInputStream(Files.newInputStream(path)));
+                DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an AI Chat corpus: " + path);
+            long complete = counter.count;
+            while (true) {
+                CorpusRecord rec;
+                try {
+                    rec = read(in);
+                } catch (EOFException e) {
+                    break; // truncated tail
+                }
+                if (rec == null)
+                    break;
+                complete = counter.count;
+                if (out != null)
+                    out.add(rec);
+            }
+            return complete;
+        }
+    }
+
+    /**
+     * Key used to match a live request against recorded ones.
+     */
+    static String key(List<ChatMessage> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (ChatMessage m : messages)
+            sb.append(m.role()).append('\u0000').append(m.content()).append('\u0001');
+        return sb.toString();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static final class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,160 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Steps the service down to cheaper levels when the backend falls behind,
+ * and back up once it catches up. Load is measured as the number of requests
+ * in flight (including those still queued for a worker thread) and a moving
+ * average of their latency from submission to completion. Levels are
+ * cumulative: each one keeps the savings of the levels below it. Levels that
+ * would change nothing for the current config (SMALL_MODEL without a small
+ * model, NO_TOOLS when commands are off, ...) are left out of the ladder, so
+ * players are never told about a step that does not shed any load.
+ * <p>
+ * Stepping up happens as soon as load warrants it, one level at a time;
+ * stepping down waits degradeRecoverSeconds per level so the level does not
+ * flap.
+ */
+public final class DegradationController {
+    public enum Level {
+        NORMAL("normal service"),
+        REDUCED_TOKENS("answers are shorter"),
+        SHORT_HISTORY("only your last exchange is remembered"),
+        SMALL_MODEL("a faster model is answering"),
+        NO_TOOLS("commands are disabled"),
+        CACHE_ONLY("only cached answers are available");
+
+        public final String description;
+
+        Level(String description) {
+            this.description = description;
+        }
+    }
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static volatile Level level = Level.NORMAL;
+    private static double avgLatencyMs;
+    private static long lastSampleMillis;
+    private static long lastChangeMillis;
+    private static ModConfig ladderFor;
+    private static Level[] ladder;
+
+    private DegradationController() {
+    }
+
+    public static Level level() {
+        return level;
+    }
+
+    public static boolean atLeast(Level l) {
+        return level.ordinal() >= l.ordinal();
+    }
+
+    /**
+     * Re-evaluates the level without starting a request. Called for every
+     * incoming request so the level can recover even while nothing reaches
+     * the backend (cache-only).
+     */
+    public static Level check(ModConfig cfg) {
+        evaluate(cfg);
+        return level;
+    }
+
+    /**
+     * A request is about to be handed to a worker thread for the backend
+     * call. Must be paired with {@link #end}.
+     */
+    public static void begin(ModConfig cfg) {
+        inFlight.incrementAndGet();
+        evaluate(cfg);
+    }
+
+    /**
+     * A request started with {@link #begin} finished (successfully or not)
+     * latencyMs after it was submitted.
+     */
+    public static void end(ModConfig cfg, long latencyMs) {
+        inFlight.decrementAndGet();
+        synchronized (DegradationController.class) {
+            avgLatencyMs = avgLatencyMs == 0 ? latencyMs : avgLatencyMs + EWMA_ALPHA * (latencyMs - avgLatencyMs);
+            lastSampleMillis = System.currentTimeMillis();
+        }
+        evaluate(cfg);
+    }
+
+    private static synchronized void evaluate(ModConfig cfg) {
+        if (cfg == null || !cfg.degradeEnabled) {
+            set(Level.NORMAL);
+            return;
+        }
+        int queueStep = cfg.degradeQueueStep > 0 ? cfg.degradeQueueStep : 4;
+        long latencyStep = cfg.degradeLatencyStepMs > 0 ? cfg.degradeLatencyStepMs : 10_000;
+        long hold = (cfg.degradeRecoverSeconds > 0 ? cfg.degradeRecoverSeconds : 30) * 1000L;
+        long now = System.currentTimeMillis();
+        // A latency average with no recent samples says nothing about current load
+        long latency = now - lastSampleMillis < hold ? (long) avgLatencyMs : 0;
+        if (cfg != ladderFor) {
+            ladder = ladder(cfg);
+            ladderFor = cfg;
+        }
+        int target = (int) Math.max(inFlight.get() / queueStep, latency / latencyStep);
+        target = Math.min(ladder.length - 1, target);
+
+        // After a reload the current level may no longer be on the ladder; use the one below it
+        int current = 0;
+        while (current + 1 < ladder.length && ladder[current + 1].ordinal() <= level.ordinal())
+            current++;
+        if (target > current) {
+            set(ladder[current + 1]);
+        } else if (target < current) {
+            if (now - lastChangeMillis >= hold)
+                set(ladder[current - 1]);
+        } else {
+            set(ladder[current]);
+        }
+    }
+
+    /**
+     * The levels that change anything for this config, in order.
+     */
+    static Level[] ladder(ModConfig cfg) {
+        List<Level> levels = new ArrayList<>();
+        for (Level l : Level.values()) {
+            if (applies(l, cfg))
+                levels.add(l);
+        }
+        return levels.toArray(new Level[0]);
+    }
+
+    private static boolean applies(Level l, ModConfig cfg) {
+        return switch (l) {
+            case REDUCED_TOKENS -> cfg.maxTokens <= 0
+                    || cfg.maxTokens > (cfg.degradedMaxTokens > 0 ? cfg.degradedMaxTokens : 128);
+            case SHORT_HISTORY -> cfg.maxHistory > 1;
+            case SMALL_MODEL -> Providers.hasSmallModel(cfg);
+            case NO_TOOLS -> cfg.allowRunCommands && !"local".equalsIgnoreCase(cfg.provider);
+            default -> true;
+        };
+    }
+
+    private static void set(Level next) {
+        if (next == level)
+            return;
+        FabricAiChatMod.LOGGER.info("AI service level {} -> {} (in flight={}, avg latency={} ms)", level, next,
+                inFlight.get(), (long) avgLatencyMs);
+        level = next;
+        lastChangeMillis = System.currentTimeMillis();
+    }
+
+    public static synchronized String summary() {
+        return "Service level=" + level + " inFlight=" + inFlight.get() + " avgLatencyMs=" + (long) avgLatencyMs;
+    }
+}
@@ -0,0 +1,187 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import okhttp3.*;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared OkHttp client for all providers. One client (and so one connection
+ * pool) is kept per loaded config, so repeated requests reuse warm connections
+ * instead of opening a new pool on every call. Rebuilt when the config is
+ * reloaded.
+ */
+public final class HttpClients {
+    private static OkHttpClient shared;
+    private static ModConfig sharedFor;
+    private static boolean sharedForNull;
+
+    private HttpClients() {
+    }
+
+    public static synchronized OkHttpClient forConfig(ModConfig cfg) {
+        if (shared != null && (cfg == null ? sharedForNull : cfg == sharedFor))
+            return shared;
+        OkHttpClient old = shared;
+        shared = build(cfg);
+        sharedFor = cfg;
+        sharedForNull = cfg == null;
+        if (old != null) {
+            // Let in-flight calls finish; just drop idle sockets from the previous pool
+            old.connectionPool().evictAll();
+        }
+        return shared;
+    }
+
+    private static OkHttpClient build(ModConfig cfg) {
+        OkHttpClient.Builder b = new OkHttpClient.Builder();
+        // Apply timeouts if provided via config; use sensible defaults otherwise
+        int connect = cfg != null ? cfg.httpConnectTimeoutSec : 10;
+        int read = cfg != null ? cfg.httpReadTimeoutSec : 120;
+        int write = cfg != null ? cfg.httpWriteTimeoutSec : 120;
+        int call = cfg != null ? cfg.httpCallTimeoutSec : 300;
+        if (connect > 0)
+            b.connectTimeout(connect, TimeUnit.SECONDS);
+        if (read > 0)
+            b.readTimeout(read, TimeUnit.SECONDS);
+        if (write > 0)
+            b.writeTimeout(write, TimeUnit.SECONDS);
+        // 0 means no deadline
+        if (call > 0)
+            b.callTimeout(call, TimeUnit.SECONDS);
+
+        if (cfg != null) {
+            // "h2c" = cleartext HTTP/2 without upgrade; only valid for plain http:// servers (vLLM, llama.cpp).
+            // "http1" pins HTTP/1.1. Anything else keeps OkHttp's default (HTTP/2 via ALPN on TLS).
+            if ("h2c".equalsIgnoreCase(cfg.httpProtocol)) {
+                b.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+            } else if ("http1".equalsIgnoreCase(cfg.httpProtocol)) {
+                b.protocols(List.of(Protocol.HTTP_1_1));
+            }
+            int maxIdle = cfg.httpMaxIdleConnections > 0 ? cfg.httpMaxIdleConnections : 5;
+            int keepAlive = cfg.httpKeepAliveSec > 0 ? cfg.httpKeepAliveSec : 300;
+            b.connectionPool(new ConnectionPool(maxIdle, keepAlive, TimeUnit.SECONDS));
+            if (cfg.httpDnsCacheSec > 0)
+                b.dns(new CachingDns(cfg.httpDnsCacheSec));
+            if (cfg.httpGzipRequests)
+                b.addInterceptor(new GzipRequestInterceptor(Math.max(0, cfg.httpGzipMinBytes)));
+            if (cfg.recordCorpusPath != null && !cfg.recordCorpusPath.isBlank())
+                b.addInterceptor(RecordingProvider.BODY_CAPTURE);
+        }
+        b.socketFactory(new NoDelaySocketFactory());
+        b.eventListener(TransportStats.LISTENER);
+        return b.build();
+    }
+
+    /**
+     * Compresses request bodies at or above a size threshold. The body is
+     * compressed up front so the request keeps a Content-Length; some local
+     * servers reject chunked uploads.
+     */
+    static final class GzipRequestInterceptor implements Interceptor {
+        private final int minBytes;
+
+        GzipRequestInterceptor(int minBytes) {
+            this.minBytes = minBytes;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request req = chain.request();
+            RequestBody body = req.body();
+            if (body == null || req.header("Content-Encoding") != null || body.contentLength() < minBytes)
+                return chain.proceed(req);
+            Buffer buf = new Buffer();
+            try (BufferedSink gz = Okio.buffer(new GzipSink(buf))) {
+                body.writeTo(gz);
+            }
+            Request compressed = req.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(req.method(), RequestBody.create(buf.readByteString(), body.contentType()))
+                    .build();
+            return chain.proceed(compressed);
+        }
+    }
+
+    /**
+     * Plain sockets with Nagle's algorithm off. OkHttp flushes HTTP/2 HEADERS
+     * and DATA frames separately, and with Nagle on the DATA frame waits for
+     * the server's delayed ACK (about 40 ms on Linux) on every request. TLS
+     * sockets are layered on these, so this covers https too.
+     */
+    static final class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket s) throws IOException {
+            s.setTcpNoDelay(true);
+            return s;
+        }
+    }
+
+    /**
+     * Caches DNS answers for a fixed TTL, independent of the JVM-wide
+     * networkaddress.cache.ttl setting.
+     */
+    static final class CachingDns implements Dns {
+        private record Entry(List<InetAddress> addresses, long expiresAt) {
+        }
+
+        private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+        private final long ttlNanos;
+
+        CachingDns(int ttlSeconds) {
+            this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = System.nanoTime();
+            Entry e = cache.get(hostname);
+            if (e != null && now - e.expiresAt() < 0) {
+                TransportStats.DNS_CACHE_HITS.increment();
+                return e.addresses();
+            }
+            List<InetAddress> addrs = Dns.SYSTEM.lookup(hostname);
+            cache.put(hostname, new Entry(addrs, now + ttlNanos));
+            return addrs;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dev.charlielarson.ai_chat.llm;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Builds a provider that is slow to load (a replay corpus, a local model) on
+ * the first request thread that needs it, never on the server thread. The
+ * outcome is kept, failure included, so a broken file is not reloaded on
+ * every request; /ai reload builds a new chain and tries again.
+ */
+final class LazyProvider implements LlmProvider {
+    private final String what;
+    private final Callable<LlmProvider> loader;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CompletableFuture<LlmProvider> loaded = new CompletableFuture<>();
+
+    LazyProvider(String what, Callable<LlmProvider> loader) {
+        this.what = what;
+        this.loader = loader;
+    }
+
+    private LlmProvider get() throws Exception {
+        if (started.compareAndSet(false, true)) {
+            try {
+                loaded.complete(loader.call());
+            } catch (Throwable t) {
+                loaded.completeExceptionally(t);
+            }
+        }
+        try {
+            // Concurrent first requests wait for the one that is loading
+            return loaded.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new IllegalStateException("Cannot load " + what + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        return get().chat(messages, temperature, maxTokens);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens, Consumer<String> onText)
+            throws Exception {
+        return get().chat(messages, temperature, maxTokens, onText);
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        return get().embed(text);
+    }
+}
@@ -1,10 +1,36 @@
 package dev.charlielarson.ai_chat.llm;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface LlmProvider {
-    record Result(String text, ToolCall tool) {
+    /**
+     * Model output. model and token counts are informational; token counts are
+     * -1 when the backend does not report usage.
+     */
+    record Result(String text, ToolCall tool, String model, int promptTokens, int completionTokens) {
+        public Result(String text, ToolCall tool) {
+            this(text, tool, null, -1, -1);
+        }
     }
 
     Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception;
+
+    /**
+     * Like {@link #chat(List, double, int)}, but providers that generate
+     * in-process pass the reply text to onText (if not null) in pieces as it
+     * is produced. The others never call it; the result always has the whole
+     * reply.
+     */
+    default Result chat(List<ChatMessage> messages, double temperature, int maxTokens, Consumer<String> onText)
+            throws Exception {
+        return chat(messages, temperature, maxTokens);
+    }
+
+    /**
+     * Embedding vector for the given text, used by the semantic cache.
+     */
+    default float[] embed(String text) throws Exception {
+        throw new UnsupportedOperationException("Embeddings are not supported by this provider");
+    }
 }
\ No newline at end of file
@@ -9,7 +9,6 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeUnit;
 import java.util.List;
 
 public class OllamaProvider implements LlmProvider {
@@ -19,6 +18,7 @@ public class OllamaProvider implements LlmProvider {
     private final OkHttpClient http;
     // Whether we should advertise/parse tools at all (driven by config)
     private final boolean allowTools;
+    private final String embeddingModel;
 
     public OllamaProvider(String baseUrl, String model) {
         this(baseUrl, model, null);
@@ -27,37 +27,101 @@ public class OllamaProvider implements LlmProvider {
     public OllamaProvider(String baseUrl, String model, dev.charlielarson.ai_chat.config.ModConfig cfg) {
         this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
         this.model = model;
-        OkHttpClient.Builder b = new OkHttpClient.Builder();
-        // Apply timeouts if provided via config; use sensible defaults otherwise
-        int connect = cfg != null ? cfg.httpConnectTimeoutSec : 10;
-        int read = cfg != null ? cfg.httpReadTimeoutSec : 120;
-        int write = cfg != null ? cfg.httpWriteTimeoutSec : 120;
-        int call = cfg != null ? cfg.httpCallTimeoutSec : 300;
-        if (connect > 0)
-            b.connectTimeout(connect, TimeUnit.SECONDS);
-        if (read > 0)
-            b.readTimeout(read, TimeUnit.SECONDS);
-        if (write > 0)
-            b.writeTimeout(write, TimeUnit.SECONDS);
-        // 0 means no deadline
-        if (call > 0)
-            b.callTimeout(call, TimeUnit.SECONDS);
-        this.http = b.build();
+        this.http = HttpClients.forConfig(cfg);
         this.allowTools = cfg != null && cfg.allowRunCommands;
+        this.embeddingModel = cfg != null ? cfg.ollamaEmbeddingModel : null;
+    }
+
+    /**
+     * Ollama's own measurement of one call: tokens and nanoseconds spent on
+     * the prompt and on generation, without HTTP or model-load overhead.
+     */
+    public record Timings(int promptTokens, long promptNanos, int generatedTokens, long generateNanos) {
+        public double generateTokensPerSecond() {
+            return generateNanos > 0 ? generatedTokens * 1e9 / generateNanos : 0;
+        }
+
+        public double promptTokensPerSecond() {
+            return promptNanos > 0 ? promptTokens * 1e9 / promptNanos : 0;
+        }
+    }
+
+    /**
+     * Runs a chat without tools and returns the server-side timings; used by
+     * the local model benchmark.
+     */
+    public Timings chatTimings(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        JsonObject jo = post(messages, temperature, maxTokens, false);
+        return new Timings(intField(jo, "prompt_eval_count"), longField(jo, "prompt_eval_duration"),
+                intField(jo, "eval_count"), longField(jo, "eval_duration"));
+    }
+
+    private static int intField(JsonObject jo, String name) {
+        return jo.has(name) && !jo.get(name).isJsonNull() ? jo.get(name).getAsInt() : -1;
+    }
+
+    private static long longField(JsonObject jo, String name) {
+        return jo.has(name) && !jo.get(name).isJsonNull() ? jo.get(name).getAsLong() : -1;
     }
 
     @Override
     public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        // Tools are also switched off while the service is degraded
+        boolean tools = allowTools && !DegradationController.atLeast(DegradationController.Level.NO_TOOLS);
+        return parse(post(messages, temperature, maxTokens, tools), model, tools);
+    }
+
+    /**
+     * Turns an /api/chat response into a Result. Also used by
+     * {@link ReplayProvider} on recorded bodies.
+     */
+    static Result parse(JsonObject jo, String model, boolean tools) {
+        String text = null;
+        // Primary shape from /api/chat: { message: { content: "..." } }
+        if (jo.has("message") && jo.get("message").isJsonObject()) {
+            JsonObject msg = jo.getAsJsonObject("message");
+            if (msg.has("content") && !msg.get("content").isJsonNull()) {
+                text = msg.get("content").getAsString();
+            }
+        }
+        // Fallback: some responses use 'response' field
+        if ((text == null || text.isBlank()) && jo.has("response") && !jo.get("response").isJsonNull()) {
+            text = jo.get("response").getAsString();
+        }
+        if (text == null)
+            text = "";
+        // Only parse tool calls when tools are allowed; otherwise ignore them
+        ToolCall tool = null;
+        if (tools) {
+            // Prefer structured tool_calls when present; otherwise fall back to fenced JSON
+            // in text
+            tool = tryParseOllamaToolCalls(jo);
+            if (tool == null) {
+                tool = tryParseTool(text);
+            }
+            if (tool == null && jo != null && ((jo.has("tool_calls") && jo.get("tool_calls").isJsonArray())
+                    || (jo.has("message") && jo.get("message").getAsJsonObject().has("tool_calls")))) {
+                dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
+                        .debug("Ollama tool_calls present but not parsed.");
+            }
+        }
+        int promptTokens = intField(jo, "prompt_eval_count");
+        int completionTokens = intField(jo, "eval_count");
+        return new Result(text, tool, model, promptTokens, completionTokens);
+    }
+
+    private JsonObject post(List<ChatMessage> messages, double temperature, int maxTokens, boolean tools)
+            throws Exception {
         JsonObject root = new JsonObject();
         root.addProperty("model", model);
         root.addProperty("stream", false);
         // Provide tools only when allowed; otherwise explicitly opt out
-        if (allowTools) {
+        if (tools) {
             // Provide tools so models that support function calling can trigger them
             // natively
-            JsonArray tools = buildToolsJson();
-            if (tools != null && tools.size() > 0) {
-                root.add("tools", tools);
+            JsonArray toolsJson = buildToolsJson();
+            if (toolsJson != null && toolsJson.size() > 0) {
+                root.add("tools", toolsJson);
             }
             // Hint that tool use is optional/automatic, not forced
             root.addProperty("tool_choice", "auto");
@@ -91,40 +155,29 @@ public class OllamaProvider implements LlmProvider {
                 throw new RuntimeException("Ollama error: " + resp.code() + " " + resp.message());
             String body = resp.body().string();
             // Lightweight debug in server log for troubleshooting
-            dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.info("Ollama raw response: {}",
-                    body);
+            if (dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.isDebugEnabled())
+                dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.debug("Ollama raw response: {}", body);
 
-            JsonObject jo = JsonParser.parseString(body).getAsJsonObject();
-            String text = null;
-            // Primary shape from /api/chat: { message: { content: "..." } }
-            if (jo.has("message") && jo.get("message").isJsonObject()) {
-                JsonObject msg = jo.getAsJsonObject("message");
-                if (msg.has("content") && !msg.get("content").isJsonNull()) {
-                    text = msg.get("content").getAsString();
-                }
-            }
-            // Fallback: some responses use 'response' field
-            if ((text == null || text.isBlank()) && jo.has("response") && !jo.get("response").isJsonNull()) {
-                text = jo.get("response").getAsString();
-            }
-            if (text == null)
-                text = "";
-            // Only parse tool calls when tools are allowed; otherwise ignore them
-            ToolCall tool = null;
-            if (allowTools) {
-                // Prefer structured tool_calls when present; otherwise fall back to fenced JSON
-                // in text
-                tool = tryParseOllamaToolCalls(jo);
-                if (tool == null) {
-                    tool = tryParseTool(text);
-                }
-                if (tool == null && jo != null && ((jo.has("tool_calls") && jo.get("tool_calls").isJsonArray())
-                        || (jo.has("message") && jo.get("message").getAsJsonObject().has("tool_calls")))) {
-                    dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
-                            .debug("Ollama tool_calls present but not parsed.");
-                }
-            }
-            return new Result(text, tool);
+            return JsonParser.parseString(body).getAsJsonObject();
+        }
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        if (embeddingModel == null || embeddingModel.isBlank())
+            throw new UnsupportedOperationException("ollamaEmbeddingModel is not set");
+        JsonObject root = new JsonObject();
+        root.addProperty("model", embeddingModel);
+        root.addProperty("input", text);
+        Request req = new Request.Builder()
+                .url(baseUrl + "/api/embed")
+                .post(RequestBody.create(root.toString().getBytes(StandardCharsets.UTF_8), JSON))
+                .build();
+        try (Response resp = http.newCall(req).execute()) {
+            if (!resp.isSuccessful())
+                throw new RuntimeException("Ollama embed error: " + resp.code() + " " + resp.message());
+            JsonObject jo = JsonParser.parseString(resp.body().string()).getAsJsonObject();
+            return OpenAiProvider.toFloats(jo.getAsJsonArray("embeddings").get(0).getAsJsonArray());
         }
     }
 
@@ -173,7 +226,7 @@ public class OllamaProvider implements LlmProvider {
      * }
      * }
      */
-    private ToolCall tryParseOllamaToolCalls(JsonObject root) {
+    private static ToolCall tryParseOllamaToolCalls(JsonObject root) {
         try {
             if (root == null || !root.has("message") || !root.get("message").isJsonObject())
                 return null;
@@ -235,7 +288,7 @@ public class OllamaProvider implements LlmProvider {
         return null;
     }
 
-    private ToolCall tryParseTool(String text) {
+    private static ToolCall tryParseTool(String text) {
         int start = text.indexOf("{\"tool\"");
         int end = text.lastIndexOf("}");
         if (start >= 0 && end > start) {
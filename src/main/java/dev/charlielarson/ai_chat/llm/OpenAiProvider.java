@@ -5,7 +5,6 @@ import okhttp3.*;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 public class OpenAiProvider implements LlmProvider {
     private final String apiBase;
@@ -14,6 +13,7 @@ public class OpenAiProvider implements LlmProvider {
     private static final MediaType JSON = MediaType.parse("application/json");
     private final OkHttpClient http;
     private final boolean allowTools;
+    private final String embeddingModel;
 
     public OpenAiProvider(String apiBase, String apiKey, String model) {
         this(apiBase, apiKey, model, null);
@@ -23,35 +23,25 @@ public class OpenAiProvider implements LlmProvider {
         this.apiBase = apiBase.endsWith("/") ? apiBase.substring(0, apiBase.length() - 1) : apiBase;
         this.apiKey = apiKey != null && !apiKey.isBlank() ? apiKey : System.getenv("OPENAI_API_KEY");
         this.model = model;
-        OkHttpClient.Builder b = new OkHttpClient.Builder();
-        int connect = cfg != null ? cfg.httpConnectTimeoutSec : 10;
-        int read = cfg != null ? cfg.httpReadTimeoutSec : 120;
-        int write = cfg != null ? cfg.httpWriteTimeoutSec : 120;
-        int call = cfg != null ? cfg.httpCallTimeoutSec : 300;
-        if (connect > 0)
-            b.connectTimeout(connect, TimeUnit.SECONDS);
-        if (read > 0)
-            b.readTimeout(read, TimeUnit.SECONDS);
-        if (write > 0)
-            b.writeTimeout(write, TimeUnit.SECONDS);
-        if (call > 0)
-            b.callTimeout(call, TimeUnit.SECONDS);
-        this.http = b.build();
+        this.http = HttpClients.forConfig(cfg);
         this.allowTools = cfg != null && cfg.allowRunCommands;
+        this.embeddingModel = cfg != null ? cfg.openaiEmbeddingModel : null;
     }
 
     @Override
     public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        // Tools are also switched off while the service is degraded
+        boolean tools = allowTools && !DegradationController.atLeast(DegradationController.Level.NO_TOOLS);
         JsonObject root = new JsonObject();
         root.addProperty("model", model);
         root.addProperty("temperature", temperature);
         if (maxTokens > 0)
             root.addProperty("max_tokens", maxTokens);
         // Advertise tools only when allowed; otherwise explicitly disable
-        if (allowTools) {
-            JsonArray tools = buildToolsJson();
-            if (tools != null && tools.size() > 0) {
-                root.add("tools", tools);
+        if (tools) {
+            JsonArray toolsJson = buildToolsJson();
+            if (toolsJson != null && toolsJson.size() > 0) {
+                root.add("tools", toolsJson);
             }
             root.addProperty("tool_choice", "auto");
         } else {
@@ -76,41 +66,87 @@ public class OpenAiProvider implements LlmProvider {
             if (!resp.isSuccessful())
                 throw new RuntimeException("OpenAI error: " + resp.code() + " " + resp.message());
             String body = resp.body().string();
-            dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.info("OpenAI raw response: {}",
-                    body.length() > 500 ? body.substring(0, 500) + "…" : body);
-            JsonObject jo = JsonParser.parseString(body).getAsJsonObject();
-            JsonObject choice = jo.getAsJsonArray("choices").get(0).getAsJsonObject();
-            JsonObject msg = choice.getAsJsonObject("message");
-            String text = "";
-            if (msg.has("content") && !msg.get("content").isJsonNull()) {
-                try {
-                    text = msg.get("content").getAsString();
-                } catch (Exception ignored) {
-                }
+            if (dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.isDebugEnabled())
+                dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER.debug("OpenAI raw response: {}",
+                        body.length() > 500 ? body.substring(0, 500) + "…" : body);
+            return parse(body, model, tools);
+        }
+    }
+
+    /**
+     * Turns a chat.completions response body into a Result. Also used by
+     * {@link ReplayProvider} on recorded bodies.
+     */
+    static Result parse(String body, String model, boolean tools) {
+        JsonObject jo = JsonParser.parseString(body).getAsJsonObject();
+        JsonObject choice = jo.getAsJsonArray("choices").get(0).getAsJsonObject();
+        JsonObject msg = choice.getAsJsonObject("message");
+        String text = "";
+        if (msg.has("content") && !msg.get("content").isJsonNull()) {
+            try {
+                text = msg.get("content").getAsString();
+            } catch (Exception ignored) {
             }
-            // Prefer structured tool calls when present, but only when tools are allowed
-            ToolCall tool = null;
-            if (allowTools) {
-                tool = tryParseOpenAiToolCalls(msg);
-                if (tool == null) {
-                    tool = tryParseOpenAiFunctionCall(msg);
-                }
-                if (tool == null) {
-                    tool = tryParseTool(text);
+        }
+        // Prefer structured tool calls when present, but only when tools are allowed
+        ToolCall tool = null;
+        if (tools) {
+            tool = tryParseOpenAiToolCalls(msg);
+            if (tool == null) {
+                tool = tryParseOpenAiFunctionCall(msg);
+            }
+            if (tool == null) {
+                tool = tryParseTool(text);
+            }
+            if (tool == null && msg != null) {
+                if (msg.has("tool_calls")) {
+                    dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
+                            .debug("OpenAI tool_calls present but not parsed.");
                 }
-                if (tool == null && msg != null) {
-                    if (msg.has("tool_calls")) {
-                        dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
-                                .debug("OpenAI tool_calls present but not parsed.");
-                    }
-                    if (msg.has("function_call")) {
-                        dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
-                                .debug("OpenAI function_call present but not parsed.");
-                    }
+                if (msg.has("function_call")) {
+                    dev.charlielarson.ai_chat.FabricAiChatMod.LOGGER
+                            .debug("OpenAI function_call present but not parsed.");
                 }
             }
-            return new Result(text, tool);
         }
+        int promptTokens = -1;
+        int completionTokens = -1;
+        if (jo.has("usage") && jo.get("usage").isJsonObject()) {
+            JsonObject usage = jo.getAsJsonObject("usage");
+            if (usage.has("prompt_tokens") && !usage.get("prompt_tokens").isJsonNull())
+                promptTokens = usage.get("prompt_tokens").getAsInt();
+            if (usage.has("completion_tokens") && !usage.get("completion_tokens").isJsonNull())
+                completionTokens = usage.get("completion_tokens").getAsInt();
+        }
+        return new Result(text, tool, model, promptTokens, completionTokens);
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        if (embeddingModel == null || embeddingModel.isBlank())
+            throw new UnsupportedOperationException("openaiEmbeddingModel is not set");
+        JsonObject root = new JsonObject();
+        root.addProperty("model", embeddingModel);
+        root.addProperty("input", text);
+        Request req = new Request.Builder()
+                .url(apiBase + "/embeddings")
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .post(RequestBody.create(root.toString().getBytes(StandardCharsets.UTF_8), JSON))
+                .build();
+        try (Response resp = http.newCall(req).execute()) {
+            if (!resp.isSuccessful())
+                throw new RuntimeException("OpenAI embeddings error: " + resp.code() + " " + resp.message());
+            JsonObject jo = JsonParser.parseString(resp.body().string()).getAsJsonObject();
+            JsonArray vec = jo.getAsJsonArray("data").get(0).getAsJsonObject().getAsJsonArray("embedding");
+            return toFloats(vec);
+        }
+    }
+
+    static float[] toFloats(JsonArray arr) {
+        float[] out = new float[arr.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = arr.get(i).getAsFloat();
+        return out;
     }
 
     private JsonArray buildToolsJson() {
@@ -151,7 +187,7 @@ public class OpenAiProvider implements LlmProvider {
     /**
      * Parse OpenAI chat.completions tool_calls structure.
      */
-    private ToolCall tryParseOpenAiToolCalls(JsonObject message) {
+    private static ToolCall tryParseOpenAiToolCalls(JsonObject message) {
         try {
             if (message == null || !message.has("tool_calls") || !message.get("tool_calls").isJsonArray())
                 return null;
@@ -206,7 +242,7 @@ public class OpenAiProvider implements LlmProvider {
     /**
      * Parse legacy OpenAI function_call format on the assistant message.
      */
-    private ToolCall tryParseOpenAiFunctionCall(JsonObject message) {
+    private static ToolCall tryParseOpenAiFunctionCall(JsonObject message) {
         try {
             if (message == null || !message.has("function_call") || !message.get("function_call").isJsonObject())
                 return null;
@@ -241,7 +277,7 @@ public class OpenAiProvider implements LlmProvider {
         return null;
     }
 
-    private ToolCall tryParseTool(String text) {
+    private static ToolCall tryParseTool(String text) {
         // Look for fenced JSON block and only accept the one supported tool with
         // non-empty command
         int start = text.indexOf("{\"tool\"");
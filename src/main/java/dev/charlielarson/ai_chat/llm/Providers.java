@@ -0,0 +1,91 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.local.LocalProvider;
+import dev.charlielarson.ai_chat.state.SharedStates;
+
+import java.nio.file.Path;
+
+/**
+ * Builds the provider chain for the current config. The chain is kept until
+ * the config is reloaded so decorators can hold state across requests.
+ */
+public final class Providers {
+    private static LlmProvider shared;
+    private static ModConfig sharedFor;
+
+    private Providers() {
+    }
+
+    public static synchronized LlmProvider forConfig(ModConfig cfg) {
+        if (shared != null && cfg == sharedFor)
+            return shared;
+        shared = create(cfg);
+        sharedFor = cfg;
+        return shared;
+    }
+
+    private static LlmProvider create(ModConfig cfg) {
+        LlmProvider chain = createUncached(cfg);
+        if (cfg.semanticCacheEnabled) {
+            double threshold = cfg.semanticCacheThreshold > 0 ? cfg.semanticCacheThreshold : 0.92;
+            int entries = cfg.semanticCacheMaxEntries > 0 ? cfg.semanticCacheMaxEntries : 512;
+            chain = new SemanticCacheProvider(chain, SharedStates.forConfig(cfg), threshold, entries);
+        }
+        return chain;
+    }
+
+    private static LlmProvider createUncached(ModConfig cfg) {
+        if ("replay".equalsIgnoreCase(cfg.provider)) {
+            return new LazyProvider("replay corpus " + cfg.replayCorpusPath,
+                    () -> new ReplayProvider(Path.of(cfg.replayCorpusPath), cfg.replayLatencyScale,
+                            cfg.allowRunCommands));
+        }
+        LlmProvider backend = createBackend(cfg);
+        if (cfg.recordCorpusPath != null && !cfg.recordCorpusPath.isBlank())
+            backend = new RecordingProvider(backend, Path.of(cfg.recordCorpusPath));
+        return backend;
+    }
+
+    private static LlmProvider createBackend(ModConfig cfg) {
+        if ("local".equalsIgnoreCase(cfg.provider)) {
+            // Loading maps and scans gigabytes; never do it on the server thread
+            return new LazyProvider("local model " + cfg.localModelPath, () -> LocalProvider.forConfig(cfg));
+        }
+        boolean ollama = "ollama".equalsIgnoreCase(cfg.provider);
+        String largeModel = ollama ? cfg.ollamaModel : cfg.openaiModel;
+        String smallModel = ollama ? cfg.ollamaSmallModel : cfg.openaiSmallModel;
+        LlmProvider large = create(cfg, largeModel);
+        if (!(cfg.routingEnabled || cfg.degradeEnabled) || !hasSmallModel(cfg))
+            return large;
+        // With routing off the router only exists so degradation can switch to the small model
+        int threshold = cfg.routingThreshold > 0 ? cfg.routingThreshold : 4;
+        FabricAiChatMod.LOGGER.debug("AI routing enabled={} small={} large={} threshold={}", cfg.routingEnabled,
+                smallModel, largeModel, threshold);
+        return new RoutingProvider(create(cfg, smallModel), large, cfg.routingEnabled, threshold,
+                cfg.allowRunCommands);
+    }
+
+    /**
+     * Whether the backend has a separate small model configured, i.e. whether
+     * routing or the SMALL_MODEL service level can change anything.
+     */
+    static boolean hasSmallModel(ModConfig cfg) {
+        if ("local".equalsIgnoreCase(cfg.provider) || "replay".equalsIgnoreCase(cfg.provider))
+            return false;
+        boolean ollama = "ollama".equalsIgnoreCase(cfg.provider);
+        String largeModel = ollama ? cfg.ollamaModel : cfg.openaiModel;
+        String smallModel = ollama ? cfg.ollamaSmallModel : cfg.openaiSmallModel;
+        return smallModel != null && !smallModel.isBlank() && !smallModel.equals(largeModel);
+    }
+
+    private static LlmProvider create(ModConfig cfg, String model) {
+        if ("ollama".equalsIgnoreCase(cfg.provider)) {
+            FabricAiChatMod.LOGGER.debug("AI provider=ollama baseUrl={} model={}", cfg.ollamaBaseUrl, model);
+            return new OllamaProvider(cfg.ollamaBaseUrl, model, cfg);
+        }
+        FabricAiChatMod.LOGGER.debug("AI provider=openai apiBase={} model={}", cfg.openaiApiBase, model);
+        return new OpenAiProvider(cfg.openaiApiBase, cfg.openaiApiKey, model, cfg);
+    }
+}
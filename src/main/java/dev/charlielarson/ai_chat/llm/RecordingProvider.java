@@ -0,0 +1,208 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Passes calls through to another provider and appends each request, its
+ * result (or error) and its latency to a corpus file that
+ * {@link ReplayProvider} can serve back offline.
+ * <p>
+ * Records are handed to a writer thread, which keeps the file open while
+ * calls keep coming and closes it after a few idle seconds, so nothing is
+ * left open once the chain is replaced on reload. There is one writer per
+ * file, shared by every recorder for it, so a reload never has two of them
+ * appending to (or repairing) the same file.
+ * <p>
+ * The HTTP response body of each chat call is kept as well, captured by
+ * {@link #BODY_CAPTURE} on the shared client, so replay exercises the
+ * providers' current parsing instead of a result parsed at record time.
+ */
+public class RecordingProvider implements LlmProvider {
+    public static final LongAdder DROPPED = new LongAdder();
+
+    /**
+     * Keeps the body of chat responses received while a recorder is waiting
+     * on the same thread. Installed by {@link HttpClients} when recording.
+     */
+    static final Interceptor BODY_CAPTURE = new BodyCapture();
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long IDLE_CLOSE_SECONDS = 5;
+    private static final long MAX_RAW_BODY_BYTES = 1 << 20;
+    private static final Map<Path, CorpusWriter> WRITERS = new ConcurrentHashMap<>();
+    // {format, body} of the last chat response on this thread; set while a recorder waits on its delegate
+    private static final ThreadLocal<String[]> CAPTURED = new ThreadLocal<>();
+
+    private final LlmProvider delegate;
+    private final CorpusWriter writer;
+
+    public RecordingProvider(LlmProvider delegate, Path path) {
+        this.delegate = delegate;
+        this.writer = WRITERS.computeIfAbsent(path.toAbsolutePath().normalize(), CorpusWriter::new);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        return chat(messages, temperature, maxTokens, null);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens, Consumer<String> onText)
+            throws Exception {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        String[] raw = new String[2];
+        CAPTURED.set(raw);
+        Result res;
+        try {
+            res = delegate.chat(messages, temperature, maxTokens, onText);
+        } catch (Exception e) {
+            writer.append(new CorpusRecord(startedAt, System.nanoTime() - start, List.copyOf(messages), temperature,
+                    maxTokens, null, String.valueOf(e.getMessage()), null, null));
+            throw e;
+        } finally {
+            CAPTURED.remove();
+        }
+        writer.append(new CorpusRecord(startedAt, System.nanoTime() - start, List.copyOf(messages), temperature,
+                maxTokens, res, null, raw[0], raw[1]));
+        return res;
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        return delegate.embed(text);
+    }
+
+    private static final class BodyCapture implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response resp = chain.proceed(chain.request());
+            String[] raw = CAPTURED.get();
+            if (raw == null || !resp.isSuccessful())
+                return resp;
+            String path = chain.request().url().encodedPath();
+            String format = path.endsWith("/chat/completions") ? CorpusRecord.OPENAI
+                    : path.endsWith("/api/chat") ? CorpusRecord.OLLAMA : null;
+            if (format == null)
+                return resp;
+            // Peeking leaves the body for the provider to read; an escalated call overwrites the first one
+            ResponseBody peeked = resp.peekBody(MAX_RAW_BODY_BYTES + 1);
+            boolean fits = peeked.contentLength() <= MAX_RAW_BODY_BYTES;
+            raw[0] = fits ? format : null;
+            raw[1] = fits ? peeked.string() : null;
+            return resp;
+        }
+    }
+
+    /**
+     * Appends records to one corpus file from a background thread.
+     */
+    private static final class CorpusWriter {
+        private final Path path;
+        private final BlockingQueue<CorpusRecord> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private Thread writer; // guarded by this
+        private boolean repaired; // only touched by the writer thread
+
+        CorpusWriter(Path path) {
+            this.path = path;
+        }
+
+        void append(CorpusRecord rec) {
+            if (!queue.offer(rec)) {
+                DROPPED.increment();
+                return;
+            }
+            synchronized (this) {
+                if (writer == null) {
+                    writer = new Thread(this::run, "AI Chat corpus recorder");
+                    writer.setDaemon(true);
+                    writer.start();
+                }
+            }
+        }
+
+        private void run() {
+            DataOutputStream out = null;
+            try {
+                while (true) {
+                    CorpusRecord rec = queue.poll(IDLE_CLOSE_SECONDS, TimeUnit.SECONDS);
+                    if (rec == null) {
+                        synchronized (this) {
+                            // Checked under the lock so a record offered meanwhile starts a new writer
+                            if (queue.isEmpty()) {
+                                writer = null;
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                    if (out == null)
+                        out = open();
+                    rec.write(out);
+                    if (queue.isEmpty())
+                        out.flush();
+                }
+            } catch (IOException e) {
+                FabricAiChatMod.LOGGER.warn("Failed to record AI calls to {}: {}", path, e.toString());
+                synchronized (this) {
+                    writer = null;
+                    DROPPED.add(queue.size());
+                    queue.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private DataOutputStream open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+            if (!repaired && Files.exists(path) && Files.size(path) > 0) {
+                // Appending after a record cut short by a crash would make everything after it unreadable
+                long complete = CorpusRecord.readAll(path, null);
+                long size = Files.size(path);
+                if (complete < size) {
+                    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        ch.truncate(complete);
+                    }
+                    FabricAiChatMod.LOGGER.warn("Corpus {} ended with a truncated record; discarded {} bytes", path,
+                            size - complete);
+                }
+            }
+            repaired = true;
+            boolean fresh = !Files.exists(path) || Files.size(path) == 0;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            if (fresh)
+                out.writeInt(CorpusRecord.MAGIC);
+            return out;
+        }
+    }
+}
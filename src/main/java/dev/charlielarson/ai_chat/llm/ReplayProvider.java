@@ -0,0 +1,74 @@
+package dev.charlielarson.ai_chat.llm;
+
+import com.google.gson.JsonParser;
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a corpus written by {@link RecordingProvider} without any network.
+ * A request is answered by the next unused recording of the exact same
+ * message list; requests that were never recorded get the next recording in
+ * file order. The recorded latency is reproduced, multiplied by
+ * latencyScale (0 answers immediately).
+ * <p>
+ * Recordings that kept the raw response body are parsed again by the
+ * provider that produced them, with tools as allowed now, so parser changes
+ * show up in replay; the stored result is only used for recordings without
+ * a body.
+ */
+public class ReplayProvider implements LlmProvider {
+    private final Map<String, Deque<CorpusRecord>> byRequest = new HashMap<>();
+    private final List<CorpusRecord> all = new ArrayList<>();
+    private final double latencyScale;
+    private final boolean allowTools;
+    private int next;
+
+    public ReplayProvider(Path path, double latencyScale, boolean allowTools) throws IOException {
+        this.latencyScale = Math.max(0, latencyScale);
+        this.allowTools = allowTools;
+        long complete = CorpusRecord.readAll(path, all);
+        long size = Files.size(path);
+        if (complete < size)
+            FabricAiChatMod.LOGGER.warn("Corpus {} ends with a truncated record; discarded {} bytes", path,
+                    size - complete);
+        for (CorpusRecord rec : all)
+            byRequest.computeIfAbsent(CorpusRecord.key(rec.messages()), k -> new ArrayDeque<>()).add(rec);
+        if (all.isEmpty())
+            throw new IOException("Corpus is empty: " + path);
+        FabricAiChatMod.LOGGER.info("Loaded {} recorded AI calls from {}", all.size(), path);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        CorpusRecord rec = pick(messages);
+        long delay = (long) (rec.latencyNanos() * latencyScale);
+        if (delay > 0)
+            TimeUnit.NANOSECONDS.sleep(delay);
+        if (rec.result() == null)
+            throw new RuntimeException("Replayed error: " + rec.error());
+        if (rec.rawBody() == null)
+            return rec.result();
+        // Same switch the live providers use
+        boolean tools = allowTools && !DegradationController.atLeast(DegradationController.Level.NO_TOOLS);
+        String model = rec.result().model();
+        if (CorpusRecord.OLLAMA.equals(rec.rawFormat()))
+            return OllamaProvider.parse(JsonParser.parseString(rec.rawBody()).getAsJsonObject(), model, tools);
+        return OpenAiProvider.parse(rec.rawBody(), model, tools);
+    }
+
+    private synchronized CorpusRecord pick(List<ChatMessage> messages) {
+        Deque<CorpusRecord> q = byRequest.get(CorpusRecord.key(messages));
+        if (q != null && !q.isEmpty()) {
+            // Keep the last recording around so repeated identical requests still match
+            return q.size() > 1 ? q.pollFirst() : q.peekFirst();
+        }
+        CorpusRecord rec = all.get(next);
+        next = (next + 1) % all.size();
+        return rec;
+    }
+}
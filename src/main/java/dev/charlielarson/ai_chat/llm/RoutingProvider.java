@@ -0,0 +1,156 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends simple requests to a small/fast model and everything else to the
+ * large one. Requests are scored locally by {@link #score}; when the small
+ * model returns an empty or unusable answer the request is re-asked on the
+ * large model.
+ * <p>
+ * With routing disabled the router only exists so the SMALL_MODEL service
+ * level can switch models: everything goes to the large model and nothing is
+ * counted.
+ */
+public class RoutingProvider implements LlmProvider {
+    public static final LongAdder ROUTED_SMALL = new LongAdder();
+    public static final LongAdder ROUTED_LARGE = new LongAdder();
+    public static final LongAdder ESCALATED = new LongAdder();
+
+    // Words that usually mean multi-step reasoning or a long answer; matched as whole words, so
+    // inflections that matter are listed separately
+    private static final String[] COMPLEX_WORDS = {
+            "build", "building", "design", "explain", "why", "compare", "difference", "step", "steps", "plan",
+            "farm", "farms", "redstone", "automatic", "contraption", "efficient", "best way", "strategy",
+            "and then", "calculate"
+    };
+    // Words that usually mean the model should call run_command
+    private static final String[] TOOL_WORDS = {
+            "give me", "teleport", "tp", "summon", "spawn", "set the", "change the", "weather", "time to",
+            "gamemode", "kill", "effect", "enchant my", "fill", "clone"
+    };
+
+    private final LlmProvider small;
+    private final LlmProvider large;
+    private final boolean routingEnabled;
+    private final int threshold;
+    private final boolean toolsEnabled;
+
+    public RoutingProvider(LlmProvider small, LlmProvider large, boolean routingEnabled, int threshold,
+            boolean toolsEnabled) {
+        this.small = small;
+        this.large = large;
+        this.routingEnabled = routingEnabled;
+        this.threshold = threshold;
+        this.toolsEnabled = toolsEnabled;
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        if (DegradationController.atLeast(DegradationController.Level.SMALL_MODEL)) {
+            // Under load everything goes to the small model, without escalation
+            if (routingEnabled)
+                ROUTED_SMALL.increment();
+            return small.chat(messages, temperature, maxTokens);
+        }
+        if (!routingEnabled)
+            return large.chat(messages, temperature, maxTokens);
+        int score = score(messages, toolsEnabled);
+        if (score >= threshold) {
+            ROUTED_LARGE.increment();
+            FabricAiChatMod.LOGGER.debug("AI route=large score={}", score);
+            return large.chat(messages, temperature, maxTokens);
+        }
+        ROUTED_SMALL.increment();
+        FabricAiChatMod.LOGGER.debug("AI route=small score={}", score);
+        Result res;
+        try {
+            res = small.chat(messages, temperature, maxTokens);
+        } catch (Exception e) {
+            FabricAiChatMod.LOGGER.debug("AI small model failed, escalating: {}", e.toString());
+            ESCALATED.increment();
+            return large.chat(messages, temperature, maxTokens);
+        }
+        if (isUnusable(res)) {
+            FabricAiChatMod.LOGGER.debug("AI small model answer unusable, escalating");
+            ESCALATED.increment();
+            return large.chat(messages, temperature, maxTokens);
+        }
+        return res;
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        return large.embed(text);
+    }
+
+    private static boolean isUnusable(Result res) {
+        if (res == null)
+            return true;
+        ToolCall tool = res.tool();
+        if (tool != null)
+            return tool.command() == null || tool.command().isBlank();
+        String text = res.text();
+        if (text == null || text.isBlank())
+            return true;
+        // A half-written tool call in the text means the small model got confused
+        return text.indexOf("{\"tool\"") >= 0;
+    }
+
+    /**
+     * Cheap complexity score for the latest user message. Does not allocate:
+     * keywords are matched in place with regionMatches, as whole words only
+     * ("kill" does not match "skill" or "killed").
+     */
+    static int score(List<ChatMessage> messages, boolean toolsEnabled) {
+        int n = messages.size();
+        if (n == 0)
+            return 0;
+        String msg = messages.get(n - 1).content();
+        if (msg == null)
+            return 0;
+        int len = msg.length();
+        int score = Math.min(6, len / 80);
+
+        // Conversation depth: follow-ups tend to need more context handling
+        score += Math.min(3, (n - 2) / 4);
+
+        int sentences = 0;
+        int complex = 0;
+        boolean tool = false;
+        for (int i = 0; i < len; i++) {
+            char c = msg.charAt(i);
+            if (c == '?' || c == '.' || c == '\n')
+                sentences++;
+            if (i > 0 && Character.isLetterOrDigit(msg.charAt(i - 1)))
+                continue; // only match at word starts
+            if (complex < 3 && startsWithAny(msg, i, COMPLEX_WORDS))
+                complex++;
+            if (!tool && toolsEnabled && startsWithAny(msg, i, TOOL_WORDS))
+                tool = true;
+        }
+        score += complex * 2;
+        score += Math.min(3, Math.max(0, sentences - 1));
+        if (tool)
+            score += 3;
+        return score;
+    }
+
+    private static boolean startsWithAny(String s, int offset, String[] words) {
+        for (String w : words) {
+            int end = offset + w.length();
+            if (s.regionMatches(true, offset, w, 0, w.length())
+                    && (end == s.length() || !Character.isLetterOrDigit(s.charAt(end))))
+                return true;
+        }
+        return false;
+    }
+
+    public static String summary() {
+        return "Routing small=" + ROUTED_SMALL.sum() + " large=" + ROUTED_LARGE.sum() + " escalated="
+                + ESCALATED.sum();
+    }
+}
@@ -0,0 +1,293 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.state.SharedState;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Answers paraphrased repeat questions from memory. The latest user message
+ * is embedded on its own (without history) and compared against a bounded
+ * index of earlier questions; when the best cosine similarity reaches the
+ * threshold the stored answer is returned without a chat call. Follow-ups
+ * ("why?", "what about iron?", "how do I craft it?") depend on the
+ * conversation, so a question is only looked up when it is the first turn or
+ * reads as self-contained: at least three words and none that refer back
+ * (pronouns like "it" or "that", "also", "again", "what about", ...).
+ * <p>
+ * Exact repeats of standalone questions are checked first against the
+ * (possibly cluster-wide) response cache in {@link SharedState}, which skips
+ * the embedding call too. Its keys include a hash of the system prompt, so
+ * servers or reloads with a different prompt never share answers. Answers
+ * are stored under the same rule, so they do not depend on context, and only at normal service level, since degraded answers
+ * are shortened or come from the small model. Tool calls are never cached.
+ */
+public class SemanticCacheProvider implements LlmProvider {
+    public static final LongAdder EXACT_HITS = new LongAdder();
+    public static final LongAdder HITS = new LongAdder();
+    public static final LongAdder MISSES = new LongAdder();
+    public static final LongAdder EMBED_FAILURES = new LongAdder();
+
+    // Whole words that make a question lean on earlier turns
+    private static final String[] CONTEXT_WORDS = {
+            "it", "its", "this", "that", "these", "those", "they", "them", "their", "there", "he", "she",
+            "him", "her", "one", "ones", "also", "again", "more", "else", "instead", "then", "same", "above",
+            "previous", "what about", "how about", "and"
+    };
+
+    private final LlmProvider delegate;
+    private final SharedState state;
+    private final double threshold;
+    private final int capacity;
+
+    // Entry i occupies slab[i * dim, (i + 1) * dim); vectors are unit length so dot == cosine
+    private float[] slab;
+    private int dim;
+    private final String[] answers;
+    private final long[] lastUsed;
+    private int count;
+    private long clock;
+
+    public SemanticCacheProvider(LlmProvider delegate, SharedState state, double threshold, int capacity) {
+        this.delegate = delegate;
+        this.state = state;
+        this.threshold = threshold;
+        this.capacity = Math.max(1, capacity);
+        this.answers = new String[this.capacity];
+        this.lastUsed = new long[this.capacity];
+    }
+
+    private record Lookup(String key, float[] vec, String answer) {
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        return chat(messages, temperature, maxTokens, null);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens, Consumer<String> onText)
+            throws Exception {
+        // The caller picked maxTokens and history for the level at submission; both must be normal to store
+        boolean normal = DegradationController.level() == DegradationController.Level.NORMAL;
+        Lookup found = find(messages);
+        if (found.answer() != null)
+            return new Result(found.answer(), null, "cache", -1, -1);
+
+        Result res = delegate.chat(messages, temperature, maxTokens, onText);
+        if (!found.key().isEmpty() && normal && DegradationController.level() == DegradationController.Level.NORMAL
+                && res.tool() == null && res.text() != null && !res.text().isBlank()) {
+            state.putResponse(found.key(), res.text());
+            if (found.vec() != null)
+                insert(found.vec(), res.text());
+        }
+        return res;
+    }
+
+    /**
+     * Answers from the exact and semantic caches without a chat call, for the
+     * cache-only service level. Null when neither has an answer. May call
+     * embed, so not for the server thread.
+     */
+    public String cachedAnswer(List<ChatMessage> messages) {
+        return find(messages).answer();
+    }
+
+    private Lookup find(List<ChatMessage> messages) {
+        String question = lastUserMessage(messages);
+        boolean standalone = isStandalone(messages);
+        String key = standalone && question != null ? responseKey(systemPrompt(messages), question) : "";
+        if (key.isEmpty())
+            return new Lookup(key, null, null);
+        String exact = state.getResponse(key);
+        if (exact != null) {
+            EXACT_HITS.increment();
+            return new Lookup(key, null, exact);
+        }
+        float[] vec = null;
+        try {
+            vec = normalize(delegate.embed(question.trim()));
+        } catch (Exception e) {
+            EMBED_FAILURES.increment();
+            FabricAiChatMod.LOGGER.debug("AI semantic cache embed failed: {}", e.toString());
+        }
+        if (vec == null)
+            return new Lookup(key, null, null);
+        String cached = lookup(vec);
+        if (cached != null) {
+            HITS.increment();
+            return new Lookup(key, vec, cached);
+        }
+        MISSES.increment();
+        return new Lookup(key, vec, null);
+    }
+
+    @Override
+    public float[] embed(String text) throws Exception {
+        return delegate.embed(text);
+    }
+
+    private synchronized String lookup(float[] vec) {
+        if (count == 0 || vec.length != dim)
+            return null;
+        int best = -1;
+        double bestSim = threshold;
+        for (int i = 0; i < count; i++) {
+            double sim = dot(slab, i * dim, vec, dim);
+            if (sim >= bestSim) {
+                bestSim = sim;
+                best = i;
+            }
+        }
+        if (best < 0)
+            return null;
+        lastUsed[best] = ++clock;
+        return answers[best];
+    }
+
+    private synchronized void insert(float[] vec, String answer) {
+        if (slab == null || vec.length != dim) {
+            // First entry, or the embedding model changed: start over with the new dimension
+            dim = vec.length;
+            slab = new float[capacity * dim];
+            count = 0;
+        }
+        int slot;
+        if (count < capacity) {
+            slot = count++;
+        } else {
+            // Evict least recently used
+            slot = 0;
+            for (int i = 1; i < count; i++) {
+                if (lastUsed[i] < lastUsed[slot])
+                    slot = i;
+            }
+        }
+        System.arraycopy(vec, 0, slab, slot * dim, dim);
+        answers[slot] = answer;
+        lastUsed[slot] = ++clock;
+    }
+
+    /**
+     * Plain loop with independent accumulators so the JIT can keep several
+     * multiply-adds in flight; the Vector API is still an incubator module and
+     * is not enabled on stock server launches.
+     */
+    private static double dot(float[] slab, int off, float[] v, int n) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += slab[off + i] * v[i];
+            s1 += slab[off + i + 1] * v[i + 1];
+            s2 += slab[off + i + 2] * v[i + 2];
+            s3 += slab[off + i + 3] * v[i + 3];
+        }
+        for (; i < n; i++)
+            s0 += slab[off + i] * v[i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    private static float[] normalize(float[] v) {
+        if (v == null || v.length == 0)
+            return null;
+        double norm = 0;
+        for (float f : v)
+            norm += f * f;
+        if (norm == 0)
+            return null;
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < v.length; i++)
+            v[i] *= inv;
+        return v;
+    }
+
+    private static String lastUserMessage(List<ChatMessage> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if ("user".equals(messages.get(i).role()))
+                return messages.get(i).content();
+        }
+        return null;
+    }
+
+    private static String systemPrompt(List<ChatMessage> messages) {
+        for (ChatMessage m : messages) {
+            if ("system".equals(m.role()))
+                return m.content();
+        }
+        return null;
+    }
+
+    /**
+     * Key for exact repeats of a standalone question: a hash of the system
+     * prompt followed by the question, case- and punctuation-insensitive.
+     * Empty when the question has no letters or digits.
+     */
+    public static String responseKey(String systemPrompt, String question) {
+        String q = fold(question);
+        if (q.isEmpty())
+            return "";
+        // String.hashCode is specified, so every server derives the same key
+        int prompt = systemPrompt != null ? systemPrompt.hashCode() : 0;
+        return Integer.toHexString(prompt) + ":" + q;
+    }
+
+    private static String fold(String question) {
+        StringBuilder sb = new StringBuilder(question.length());
+        boolean space = false;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0)
+                    sb.append(' ');
+                sb.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isStandalone(List<ChatMessage> messages) {
+        int users = 0;
+        for (ChatMessage m : messages) {
+            if (!"system".equals(m.role()))
+                users++;
+        }
+        return users <= 1 || readsAsStandalone(lastUserMessage(messages));
+    }
+
+    /**
+     * Whether a question makes sense without the conversation before it.
+     * Matches in place, like {@link RoutingProvider#score}; a false "no" only
+     * costs a cache lookup.
+     */
+    static boolean readsAsStandalone(String question) {
+        if (question == null)
+            return false;
+        int words = 0;
+        int len = question.length();
+        for (int i = 0; i < len; i++) {
+            if (!Character.isLetterOrDigit(question.charAt(i)))
+                continue;
+            if (i > 0 && Character.isLetterOrDigit(question.charAt(i - 1)))
+                continue; // only at word starts
+            words++;
+            for (String w : CONTEXT_WORDS) {
+                int end = i + w.length();
+                if (question.regionMatches(true, i, w, 0, w.length())
+                        && (end == len || !Character.isLetterOrDigit(question.charAt(end))))
+                    return false;
+            }
+        }
+        return words >= 3;
+    }
+
+    public static String summary() {
+        return "Response cache exact=" + EXACT_HITS.sum() + " semantic=" + HITS.sum() + " misses=" + MISSES.sum()
+                + " embedFailures=" + EMBED_FAILURES.sum();
+    }
+}
@@ -0,0 +1,92 @@
+package dev.charlielarson.ai_chat.llm;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide HTTP transport counters, fed by an OkHttp EventListener on the
+ * shared client. Byte counts are measured at the network layer, so they
+ * reflect compressed sizes.
+ */
+public final class TransportStats {
+    public static final LongAdder CALLS = new LongAdder();
+    public static final LongAdder CALLS_FAILED = new LongAdder();
+    public static final LongAdder CONNECTIONS_OPENED = new LongAdder();
+    public static final LongAdder CONNECTIONS_HTTP2 = new LongAdder();
+    public static final LongAdder CONNECTIONS_ACQUIRED = new LongAdder();
+    public static final LongAdder BYTES_SENT = new LongAdder();
+    public static final LongAdder BYTES_RECEIVED = new LongAdder();
+    public static final LongAdder DNS_LOOKUPS = new LongAdder();
+    public static final LongAdder DNS_CACHE_HITS = new LongAdder();
+
+    static final EventListener LISTENER = new EventListener() {
+        @Override
+        public void callStart(Call call) {
+            CALLS.increment();
+        }
+
+        @Override
+        public void callFailed(Call call, java.io.IOException ioe) {
+            CALLS_FAILED.increment();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            // Every resolution OkHttp asks for, whether or not CachingDns then answers it from cache
+            DNS_LOOKUPS.increment();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress addr, Proxy proxy, Protocol protocol) {
+            CONNECTIONS_OPENED.increment();
+            if (protocol == Protocol.HTTP_2 || protocol == Protocol.H2_PRIOR_KNOWLEDGE)
+                CONNECTIONS_HTTP2.increment();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            CONNECTIONS_ACQUIRED.increment();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            BYTES_SENT.add(request.headers().byteCount());
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            BYTES_SENT.add(byteCount);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            BYTES_RECEIVED.add(response.headers().byteCount());
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            BYTES_RECEIVED.add(byteCount);
+        }
+    };
+
+    private TransportStats() {
+    }
+
+    public static String summary() {
+        long acquired = CONNECTIONS_ACQUIRED.sum();
+        long opened = CONNECTIONS_OPENED.sum();
+        return "HTTP calls=" + CALLS.sum() + " failed=" + CALLS_FAILED.sum()
+                + " | connections opened=" + opened + " (h2=" + CONNECTIONS_HTTP2.sum() + ")"
+                + " reused=" + Math.max(0, acquired - opened)
+                + " | bytes sent=" + BYTES_SENT.sum() + " received=" + BYTES_RECEIVED.sum()
+                + " | dns lookups=" + DNS_LOOKUPS.sum() + " cached=" + DNS_CACHE_HITS.sum();
+    }
+}
@@ -0,0 +1,200 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reader for GGUF model files. Metadata is parsed eagerly; tensor data is
+ * memory-mapped per tensor, so weights are paged in by the OS on first use
+ * and never copied onto the Java heap.
+ */
+final class GGUF implements AutoCloseable {
+    private static final int MAGIC = 0x46554747; // "GGUF" little-endian
+
+    record TensorInfo(String name, long[] dims, int type, long offset) {
+        long elements() {
+            long n = 1;
+            for (long d : dims)
+                n *= d;
+            return n;
+        }
+    }
+
+    final Map<String, Object> metadata = new LinkedHashMap<>();
+    final Map<String, TensorInfo> tensorInfos = new LinkedHashMap<>();
+    private final Map<String, Tensor> tensors = new HashMap<>();
+    private final FileChannel channel;
+    private final long dataStart;
+
+    GGUF(Path path) throws IOException {
+        long pos;
+        try (CountingInput in = new CountingInput(Files.newInputStream(path))) {
+            if (in.i32() != MAGIC)
+                throw new IOException("Not a GGUF file: " + path);
+            int version = in.i32();
+            if (version < 2)
+                throw new IOException("Unsupported GGUF version " + version);
+            long tensorCount = in.i64();
+            long kvCount = in.i64();
+            for (long i = 0; i < kvCount; i++) {
+                String key = in.string();
+                metadata.put(key, in.value(in.i32()));
+            }
+            for (long i = 0; i < tensorCount; i++) {
+                String name = in.string();
+                int nDims = in.i32();
+                long[] dims = new long[nDims];
+                for (int d = 0; d < nDims; d++)
+                    dims[d] = in.i64();
+                int type = in.i32();
+                long offset = in.i64();
+                tensorInfos.put(name, new TensorInfo(name, dims, type, offset));
+            }
+            pos = in.count;
+        }
+        long alignment = ((Number) metadata.getOrDefault("general.alignment", 32)).longValue();
+        this.dataStart = (pos + alignment - 1) / alignment * alignment;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    String string(String key, String def) {
+        Object v = metadata.get(key);
+        return v instanceof String s ? s : def;
+    }
+
+    int integer(String key, int def) {
+        Object v = metadata.get(key);
+        return v instanceof Number n ? n.intValue() : def;
+    }
+
+    float real(String key, float def) {
+        Object v = metadata.get(key);
+        return v instanceof Number n ? n.floatValue() : def;
+    }
+
+    boolean bool(String key, boolean def) {
+        Object v = metadata.get(key);
+        return v instanceof Boolean b ? b : def;
+    }
+
+    Object[] array(String key) {
+        Object v = metadata.get(key);
+        return v instanceof Object[] a ? a : null;
+    }
+
+    boolean has(String tensor) {
+        return tensorInfos.containsKey(tensor);
+    }
+
+    /**
+     * Maps a tensor's data. Each tensor is mapped separately, which keeps
+     * every mapping under the 2 GB ByteBuffer limit.
+     */
+    synchronized Tensor tensor(String name) throws IOException {
+        Tensor t = tensors.get(name);
+        if (t != null)
+            return t;
+        TensorInfo info = tensorInfos.get(name);
+        if (info == null)
+            throw new IOException("Missing tensor " + name);
+        long bytes = Tensor.byteSize(info.type(), info.elements());
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + info.offset(), bytes);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        t = new Tensor(name, info.type(), info.dims(), buf);
+        tensors.put(name, t);
+        return t;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Little-endian stream reader that tracks its position.
+     */
+    private static final class CountingInput implements AutoCloseable {
+        private final DataInputStream in;
+        long count;
+
+        CountingInput(InputStream raw) {
+            this.in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+        }
+
+        int u8() throws IOException {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            count++;
+            return b;
+        }
+
+        short i16() throws IOException {
+            count += 2;
+            return Short.reverseBytes(in.readShort());
+        }
+
+        int i32() throws IOException {
+            count += 4;
+            return Integer.reverseBytes(in.readInt());
+        }
+
+        long i64() throws IOException {
+            count += 8;
+            return Long.reverseBytes(in.readLong());
+        }
+
+        String string() throws IOException {
+            long len = i64();
+            byte[] b = new byte[(int) len];
+            in.readFully(b);
+            count += len;
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        Object value(int type) throws IOException {
+            switch (type) {
+                case 0: return u8();                        // uint8
+                case 1: return (int) (byte) u8();           // int8
+                case 2: return i16() & 0xFFFF;              // uint16
+                case 3: return (int) i16();                 // int16
+                case 4: return i32() & 0xFFFFFFFFL;         // uint32
+                case 5: return i32();                       // int32
+                case 6: return Float.intBitsToFloat(i32()); // float32
+                case 7: return u8() != 0;                   // bool
+                case 8: return string();
+                case 9: {                                   // array
+                    int elemType = i32();
+                    long n = i64();
+                    Object[] arr = new Object[(int) n];
+                    for (int i = 0; i < n; i++)
+                        arr[i] = value(elemType);
+                    return arr;
+                }
+                case 10: return i64();                      // uint64
+                case 11: return i64();                      // int64
+                case 12: return Double.longBitsToDouble(i64());
+                default:
+                    throw new IOException("Unknown GGUF metadata type " + type);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Llama-family transformer (llama, qwen2) evaluated on the CPU, one token at
+ * a time. Weights stay memory-mapped; matrix-vector products are split by
+ * output row across a dedicated fork-join pool so inference never competes
+ * with the common pool the request futures run on.
+ */
+final class LlamaModel implements AutoCloseable {
+    private record Layer(float[] attnNorm, Tensor wq, Tensor wk, Tensor wv, Tensor wo,
+            float[] bq, float[] bk, float[] bv,
+            float[] ffnNorm, Tensor gate, Tensor up, Tensor down) {
+    }
+
+    final String name;
+    final Tokenizer tokenizer;
+    final int dim;
+    final int layers;
+    final int heads;
+    final int kvHeads;
+    final int headDim;
+    final int kvDim;
+    final int hidden;
+    final int vocab;
+    final int contextLength;
+
+    private final GGUF gguf;
+    private final float eps;
+    private final boolean neoxRope;
+    private final float[] invFreq;
+    private final Tensor embed;
+    private final Tensor output;
+    private final float[] outputNorm;
+    private final Layer[] blocks;
+    private final ForkJoinPool pool;
+
+    /**
+     * Per-conversation activations and KV cache. Positions [0, tokens) of the
+     * cache are valid and correspond to the token ids in ids.
+     */
+    final class State {
+        final float[] x = new float[dim];
+        final float[] xb = new float[dim];
+        final float[] xb2 = new float[dim];
+        final float[] q = new float[dim];
+        final float[] k = new float[kvDim];
+        final float[] v = new float[kvDim];
+        final float[] att = new float[heads * contextLength];
+        final float[] hb = new float[hidden];
+        final float[] logits = new float[vocab];
+        final float[][] keyCache = new float[layers][];
+        final float[][] valueCache = new float[layers][];
+        final int[] ids = new int[contextLength];
+        int tokens;
+
+        State() {
+            for (int l = 0; l < layers; l++) {
+                keyCache[l] = new float[contextLength * kvDim];
+                valueCache[l] = new float[contextLength * kvDim];
+            }
+        }
+    }
+
+    LlamaModel(Path path, int threads, int maxContext) throws IOException {
+        gguf = new GGUF(path);
+        try {
+            String arch = gguf.string("general.architecture", "llama");
+            if (!"llama".equals(arch) && !"qwen2".equals(arch))
+                throw new IOException("Unsupported model architecture " + arch + " (supported: llama, qwen2)");
+            name = gguf.string("general.name", path.getFileName().toString());
+            tokenizer = new Tokenizer(gguf);
+
+            dim = gguf.integer(arch + ".embedding_length", 0);
+            layers = gguf.integer(arch + ".block_count", 0);
+            heads = gguf.integer(arch + ".attention.head_count", 0);
+            kvHeads = gguf.integer(arch + ".attention.head_count_kv", heads);
+            hidden = gguf.integer(arch + ".feed_forward_length", 0);
+            headDim = dim / heads;
+            kvDim = kvHeads * headDim;
+            eps = gguf.real(arch + ".attention.layer_norm_rms_epsilon", 1e-5f);
+            int trained = gguf.integer(arch + ".context_length", 2048);
+            contextLength = maxContext > 0 ? Math.min(maxContext, trained) : Math.min(trained, 2048);
+            // GGUF stores llama Q/K rows interleaved for adjacent-pair rotation; qwen2 rotates halves
+            neoxRope = "qwen2".equals(arch);
+
+            float base = gguf.real(arch + ".rope.freq_base", 10000f);
+            invFreq = new float[headDim / 2];
+            float[] factors = gguf.has("rope_freqs.weight") ? gguf.tensor("rope_freqs.weight").toFloats() : null;
+            for (int i = 0; i < invFreq.length; i++) {
+                invFreq[i] = (float) (1.0 / Math.pow(base, 2.0 * i / headDim));
+                if (factors != null)
+                    invFreq[i] /= factors[i];
+            }
+
+            embed = gguf.tensor("token_embd.weight");
+            vocab = embed.rows;
+            output = gguf.has("output.weight") ? gguf.tensor("output.weight") : embed;
+            outputNorm = gguf.tensor("output_norm.weight").toFloats();
+            blocks = new Layer[layers];
+            for (int l = 0; l < layers; l++) {
+                String p = "blk." + l + ".";
+                blocks[l] = new Layer(
+                        gguf.tensor(p + "attn_norm.weight").toFloats(),
+                        gguf.tensor(p + "attn_q.weight"), gguf.tensor(p + "attn_k.weight"),
+                        gguf.tensor(p + "attn_v.weight"), gguf.tensor(p + "attn_output.weight"),
+                        optional(p + "attn_q.bias"), optional(p + "attn_k.bias"), optional(p + "attn_v.bias"),
+                        gguf.tensor(p + "ffn_norm.weight").toFloats(),
+                        gguf.tensor(p + "ffn_gate.weight"), gguf.tensor(p + "ffn_up.weight"),
+                        gguf.tensor(p + "ffn_down.weight"));
+            }
+        } catch (IOException | RuntimeException e) {
+            gguf.close();
+            throw e;
+        }
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    private float[] optional(String tensor) throws IOException {
+        return gguf.has(tensor) ? gguf.tensor(tensor).toFloats() : null;
+    }
+
+    int threads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs token at position pos through the network, appending its keys and
+     * values to the cache. Logits are only computed when needed, which skips
+     * the largest matmul for every prompt token but the last.
+     */
+    void forward(State s, int token, int pos, boolean computeLogits) {
+        embed.row(token, s.x);
+        float[] x = s.x;
+        for (int l = 0; l < layers; l++) {
+            Layer b = blocks[l];
+            rmsnorm(s.xb, x, b.attnNorm);
+
+            // q, k and v in one parallel pass
+            float[] xb = s.xb;
+            parallel(dim + 2 * kvDim, i -> {
+                if (i < dim)
+                    s.q[i] = b.wq.dot(i, xb);
+                else if (i < dim + kvDim)
+                    s.k[i - dim] = b.wk.dot(i - dim, xb);
+                else
+                    s.v[i - dim - kvDim] = b.wv.dot(i - dim - kvDim, xb);
+            });
+            if (b.bq != null) {
+                add(s.q, b.bq);
+                add(s.k, b.bk);
+                add(s.v, b.bv);
+            }
+            rope(s.q, heads, pos);
+            rope(s.k, kvHeads, pos);
+            System.arraycopy(s.k, 0, s.keyCache[l], pos * kvDim, kvDim);
+            System.arraycopy(s.v, 0, s.valueCache[l], pos * kvDim, kvDim);
+
+            float[] keys = s.keyCache[l];
+            float[] values = s.valueCache[l];
+            int group = heads / kvHeads;
+            float scale = (float) (1.0 / Math.sqrt(headDim));
+            parallel(heads, h -> {
+                int qo = h * headDim;
+                int kvo = (h / group) * headDim;
+                int ao = h * contextLength;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int t = 0; t <= pos; t++) {
+                    int ko = t * kvDim + kvo;
+                    float score = 0;
+                    for (int i = 0; i < headDim; i++)
+                        score += s.q[qo + i] * keys[ko + i];
+                    score *= scale;
+                    s.att[ao + t] = score;
+                    if (score > max)
+                        max = score;
+                }
+                float sum = 0;
+                for (int t = 0; t <= pos; t++) {
+                    float e = (float) Math.exp(s.att[ao + t] - max);
+                    s.att[ao + t] = e;
+                    sum += e;
+                }
+                for (int i = 0; i < headDim; i++)
+                    s.xb2[qo + i] = 0;
+                for (int t = 0; t <= pos; t++) {
+                    float a = s.att[ao + t] / sum;
+                    int vo = t * kvDim + kvo;
+                    for (int i = 0; i < headDim; i++)
+                        s.xb2[qo + i] += a * values[vo + i];
+                }
+            });
+            matmul(s.xb, b.wo, s.xb2);
+            add(x, s.xb);
+
+            rmsnorm(s.xb, x, b.ffnNorm);
+            parallel(hidden, i -> {
+                float g = b.gate.dot(i, xb);
+                s.hb[i] = g / (1f + (float) Math.exp(-g)) * b.up.dot(i, xb);
+            });
+            matmul(s.xb, b.down, s.hb);
+            add(x, s.xb);
+        }
+        if (computeLogits) {
+            rmsnorm(x, x, outputNorm);
+            matmul(s.logits, output, x);
+        }
+    }
+
+    private void matmul(float[] out, Tensor w, float[] x) {
+        parallel(w.rows, i -> out[i] = w.dot(i, x));
+    }
+
+    private void parallel(int n, IntConsumer body) {
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(body)).join();
+    }
+
+    private void rmsnorm(float[] out, float[] x, float[] weight) {
+        float ss = 0;
+        for (int i = 0; i < dim; i++)
+            ss += x[i] * x[i];
+        float inv = (float) (1.0 / Math.sqrt(ss / dim + eps));
+        for (int i = 0; i < dim; i++)
+            out[i] = x[i] * inv * weight[i];
+    }
+
+    private static void add(float[] x, float[] y) {
+        for (int i = 0; i < x.length; i++)
+            x[i] += y[i];
+    }
+
+    private void rope(float[] vec, int nHeads, int pos) {
+        int half = headDim / 2;
+        for (int h = 0; h < nHeads; h++) {
+            int o = h * headDim;
+            for (int i = 0; i < half; i++) {
+                double angle = pos * invFreq[i];
+                float cos = (float) Math.cos(angle);
+                float sin = (float) Math.sin(angle);
+                int a = neoxRope ? o + i : o + 2 * i;
+                int c = neoxRope ? o + i + half : o + 2 * i + 1;
+                float v0 = vec[a];
+                float v1 = vec[c];
+                vec[a] = v0 * cos - v1 * sin;
+                vec[c] = v0 * sin + v1 * cos;
+            }
+        }
+    }
+
+    /**
+     * KV cache size of one state, for sizing sessions.
+     */
+    long stateBytes() {
+        return 2L * layers * contextLength * kvDim * Float.BYTES;
+    }
+
+    /**
+     * Closes the file. Existing mappings stay valid, and the pool is left to
+     * retire its idle workers, so a request still holding this model after a
+     * reload finishes normally.
+     */
+    @Override
+    public void close() throws IOException {
+        gguf.close();
+    }
+}
@@ -0,0 +1,75 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import dev.charlielarson.ai_chat.llm.OllamaProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the in-process model against Ollama on the same prompt. Both run
+ * greedy (temperature 0) with the same token budget after a short warm-up,
+ * so the JIT has compiled the kernels and Ollama has the model loaded.
+ * <p>
+ * The measured prompt starts with a marker the warm-up did not use, so
+ * neither side can reuse cached prompt tokens, and both sides report their
+ * own prompt and generation timings (Ollama's prompt_eval_duration and
+ * eval_duration), which leaves HTTP and model loading out of the comparison.
+ * For a same-CPU comparison Ollama must run on this machine with a
+ * comparable quantization of the same model.
+ */
+public final class LocalBenchmark {
+    private static final int TOKENS = 128;
+    private static final String PROMPT = "Explain step by step how to build an automatic sugar cane farm "
+            + "with observers and pistons.";
+
+    private LocalBenchmark() {
+    }
+
+    public static List<String> run(ModConfig cfg) throws Exception {
+        List<String> lines = new ArrayList<>();
+        List<ChatMessage> warmUp = messages(cfg, "warm-up");
+        List<ChatMessage> measured = messages(cfg, "run " + System.nanoTime());
+
+        try {
+            LocalProvider local = LocalProvider.forConfig(cfg);
+            local.generate(warmUp, 0, 8, null);
+            LocalProvider.Generation g = local.generate(measured, 0, TOKENS, null);
+            lines.add(String.format(Locale.ROOT, "Local: prompt %d tok at %.1f tok/s, generated %d tok at %.1f tok/s",
+                    g.evaluatedTokens(), g.promptTokensPerSecond(), g.generatedTokens(),
+                    g.generateTokensPerSecond()));
+        } finally {
+            // A model loaded just for the benchmark would otherwise stay mapped until the next reload
+            LocalProvider.releaseUnlessServing(cfg);
+        }
+
+        if (cfg.ollamaBaseUrl == null || cfg.ollamaBaseUrl.isBlank() || cfg.ollamaModel == null
+                || cfg.ollamaModel.isBlank()) {
+            lines.add("Ollama: skipped (ollamaBaseUrl/ollamaModel not set)");
+            return lines;
+        }
+        try {
+            OllamaProvider ollama = new OllamaProvider(cfg.ollamaBaseUrl, cfg.ollamaModel, cfg);
+            ollama.chatTimings(warmUp, 0, 8);
+            OllamaProvider.Timings t = ollama.chatTimings(measured, 0, TOKENS);
+            lines.add(String.format(Locale.ROOT,
+                    "Ollama (%s): prompt %d tok at %.1f tok/s, generated %d tok at %.1f tok/s", cfg.ollamaModel,
+                    t.promptTokens(), t.promptTokensPerSecond(), t.generatedTokens(), t.generateTokensPerSecond()));
+        } catch (Exception e) {
+            lines.add("Ollama: failed (" + e.getMessage() + ")");
+        }
+        return lines;
+    }
+
+    /**
+     * The marker goes first: both sides reuse cached prompt prefixes, and a
+     * difference anywhere later would still let them skip the system prompt.
+     */
+    private static List<ChatMessage> messages(ModConfig cfg, String marker) {
+        return List.of(
+                new ChatMessage("system", "[Benchmark " + marker + "]\n" + cfg.systemPrompt),
+                new ChatMessage("user", PROMPT));
+    }
+}
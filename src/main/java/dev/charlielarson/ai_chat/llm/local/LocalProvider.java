@@ -0,0 +1,386 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import dev.charlielarson.ai_chat.llm.LlmProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs a small GGUF chat model inside the server JVM. Requests are served one
+ * at a time (each one already uses every inference thread).
+ * <p>
+ * A few KV-cache sessions are kept. A player's next prompt starts with the
+ * same system prompt and history as their last one, so the session whose
+ * cached tokens share the longest prefix with the new prompt is reused and
+ * only the new tokens are evaluated. When none matches, the least recently
+ * used session is recycled.
+ */
+public class LocalProvider implements LlmProvider {
+    public static final LongAdder PROMPT_TOKENS = new LongAdder();
+    public static final LongAdder REUSED_TOKENS = new LongAdder();
+    public static final LongAdder GENERATED_TOKENS = new LongAdder();
+
+    private static LocalProvider shared;
+
+    /**
+     * Timing of one generation; nanosecond fields cover prompt evaluation and
+     * token generation separately.
+     */
+    public record Generation(String text, int promptTokens, int evaluatedTokens, int generatedTokens,
+            long promptNanos, long generateNanos) {
+        public double generateTokensPerSecond() {
+            return generateNanos > 0 ? generatedTokens * 1e9 / generateNanos : 0;
+        }
+
+        public double promptTokensPerSecond() {
+            return promptNanos > 0 ? evaluatedTokens * 1e9 / promptNanos : 0;
+        }
+    }
+
+    private enum Template {
+        LLAMA3, CHATML, INST
+    }
+
+    private final String path;
+    private final int threads;
+    private final int contextLength;
+    private final LlamaModel model;
+    private final Template template;
+    private final int[] stopTokens;
+    private final LlamaModel.State[] sessions;
+    private final long[] lastUsed;
+    private long clock;
+
+    private LocalProvider(ModConfig cfg) throws Exception {
+        this.path = cfg.localModelPath;
+        this.threads = cfg.localThreads;
+        this.contextLength = cfg.localContextLength;
+        long start = System.nanoTime();
+        this.model = new LlamaModel(Path.of(cfg.localModelPath), cfg.localThreads, cfg.localContextLength);
+        Tokenizer tok = model.tokenizer;
+        if (tok.special("<|start_header_id|>") >= 0) {
+            template = Template.LLAMA3;
+            stopTokens = stops(tok.eos, tok.special("<|eot_id|>"), tok.special("<|end_of_text|>"));
+        } else if (tok.special("<|im_start|>") >= 0) {
+            template = Template.CHATML;
+            stopTokens = stops(tok.eos, tok.special("<|im_end|>"), tok.special("<|endoftext|>"));
+        } else {
+            template = Template.INST;
+            stopTokens = stops(tok.eos);
+        }
+        this.sessions = new LlamaModel.State[Math.max(1, cfg.localMaxSessions > 0 ? cfg.localMaxSessions : 4)];
+        this.lastUsed = new long[sessions.length];
+        FabricAiChatMod.LOGGER.info("AI local model {} loaded in {} ms ({} layers, dim {}, context {}, {} threads, "
+                + "{} MB KV cache per session)", model.name, (System.nanoTime() - start) / 1_000_000, model.layers,
+                model.dim, model.contextLength, model.threads(), model.stateBytes() >> 20);
+    }
+
+    /**
+     * Provider for the config's model. The loaded model is kept across config
+     * reloads as long as the model settings are unchanged.
+     */
+    public static synchronized LocalProvider forConfig(ModConfig cfg) throws Exception {
+        if (cfg.localModelPath == null || cfg.localModelPath.isBlank())
+            throw new IllegalStateException("localModelPath is not set");
+        if (shared != null && shared.path.equals(cfg.localModelPath) && shared.threads == cfg.localThreads
+                && shared.contextLength == cfg.localContextLength && shared.sessions.length == Math.max(1,
+                        cfg.localMaxSessions > 0 ? cfg.localMaxSessions : 4))
+            return shared;
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+        shared = new LocalProvider(cfg);
+        return shared;
+    }
+
+    /**
+     * Closes the shared model unless it is the one the config serves from;
+     * used after a benchmark so a model loaded only for it does not stay
+     * resident.
+     */
+    public static synchronized void releaseUnlessServing(ModConfig cfg) {
+        if (shared == null || "local".equalsIgnoreCase(cfg.provider))
+            return;
+        shared.close();
+        shared = null;
+    }
+
+    private static int[] stops(int... ids) {
+        return Arrays.stream(ids).filter(id -> id >= 0).distinct().toArray();
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) throws Exception {
+        return chat(messages, temperature, maxTokens, null);
+    }
+
+    @Override
+    public Result chat(List<ChatMessage> messages, double temperature, int maxTokens, Consumer<String> onText) {
+        Generation g = generate(messages, temperature, maxTokens, onText);
+        return new Result(g.text().trim(), null, model.name, g.promptTokens(), g.generatedTokens());
+    }
+
+    /**
+     * Generates a reply, passing the decoded text to onText (if not null) as
+     * soon as each token is sampled, and reports how long each phase took.
+     * Pieces always end on a whole UTF-8 character; a token holding only
+     * part of one is held back until the rest arrives.
+     */
+    public synchronized Generation generate(List<ChatMessage> messages, double temperature, int maxTokens,
+            Consumer<String> onText) {
+        int budget = Math.max(1, Math.min(maxTokens > 0 ? maxTokens : 512, model.contextLength / 2));
+        List<ChatMessage> msgs = new ArrayList<>(messages);
+        int[] prompt = encode(msgs);
+        // Drop the oldest turns (keeping the system prompt) until prompt and reply fit
+        while (prompt.length + budget > model.contextLength && msgs.size() > 2) {
+            msgs.remove("system".equals(msgs.get(0).role()) ? 1 : 0);
+            prompt = encode(msgs);
+        }
+        if (prompt.length + budget > model.contextLength)
+            prompt = Arrays.copyOfRange(prompt, prompt.length - (model.contextLength - budget), prompt.length);
+
+        LlamaModel.State s = acquire(prompt);
+        int reuse = commonPrefix(s, prompt);
+        // The last prompt token always runs so its logits are fresh
+        reuse = Math.min(reuse, prompt.length - 1);
+        s.tokens = reuse;
+        REUSED_TOKENS.add(reuse);
+        PROMPT_TOKENS.add(prompt.length - reuse);
+
+        long t0 = System.nanoTime();
+        for (int pos = reuse; pos < prompt.length; pos++) {
+            model.forward(s, prompt[pos], pos, pos == prompt.length - 1);
+            s.ids[pos] = prompt[pos];
+            s.tokens = pos + 1;
+        }
+        long t1 = System.nanoTime();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        int generated = 0;
+        while (generated < budget && s.tokens < model.contextLength) {
+            int next = sample(s.logits, temperature);
+            if (isStop(next))
+                break;
+            generated++;
+            if (onText != null) {
+                model.tokenizer.decode(next, pending);
+                byte[] b = pending.toByteArray();
+                if (b.length > 0 && completeUtf8(b)) {
+                    bytes.writeBytes(b);
+                    pending.reset();
+                    onText.accept(new String(b, StandardCharsets.UTF_8));
+                }
+            } else {
+                model.tokenizer.decode(next, bytes);
+            }
+            if (generated >= budget || s.tokens >= model.contextLength)
+                break;
+            int pos = s.tokens;
+            model.forward(s, next, pos, true);
+            s.ids[pos] = next;
+            s.tokens = pos + 1;
+        }
+        long t2 = System.nanoTime();
+        bytes.writeBytes(pending.toByteArray());
+        GENERATED_TOKENS.add(generated);
+        return new Generation(bytes.toString(StandardCharsets.UTF_8), prompt.length, prompt.length - reuse,
+                generated, t1 - t0, t2 - t1);
+    }
+
+    /**
+     * Whether b does not end in the middle of a multi-byte UTF-8 sequence.
+     */
+    static boolean completeUtf8(byte[] b) {
+        // Find the start of the last sequence (at most 4 bytes back) and check it has all its bytes
+        for (int i = b.length - 1; i >= 0 && i >= b.length - 4; i--) {
+            int c = b[i] & 0xFF;
+            if ((c & 0xC0) == 0x80)
+                continue; // continuation byte
+            int need = c < 0x80 ? 1 : c >= 0xF0 ? 4 : c >= 0xE0 ? 3 : c >= 0xC0 ? 2 : 1;
+            return b.length - i >= need;
+        }
+        return true; // only continuation bytes: invalid, nothing to wait for
+    }
+
+    private LlamaModel.State acquire(int[] prompt) {
+        int best = -1;
+        int bestLen = 0;
+        int free = -1;
+        int lru = 0;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == null) {
+                if (free < 0)
+                    free = i;
+                continue;
+            }
+            int len = commonPrefix(sessions[i], prompt);
+            if (len > bestLen) {
+                bestLen = len;
+                best = i;
+            }
+            if (lastUsed[i] < lastUsed[lru])
+                lru = i;
+        }
+        int slot;
+        if (best >= 0) {
+            slot = best;
+        } else if (free >= 0) {
+            // Allocate sessions lazily; each one holds a full KV cache
+            sessions[free] = model.new State();
+            slot = free;
+        } else {
+            slot = lru;
+        }
+        lastUsed[slot] = ++clock;
+        return sessions[slot];
+    }
+
+    private static int commonPrefix(LlamaModel.State s, int[] prompt) {
+        int n = Math.min(s.tokens, prompt.length);
+        int i = 0;
+        while (i < n && s.ids[i] == prompt[i])
+            i++;
+        return i;
+    }
+
+    private boolean isStop(int token) {
+        for (int id : stopTokens) {
+            if (id == token)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Greedy at temperature 0, otherwise nucleus sampling (top-p 0.95).
+     */
+    private static int sample(float[] logits, double temperature) {
+        int n = logits.length;
+        if (temperature <= 0) {
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (logits[i] > logits[best])
+                    best = i;
+            }
+            return best;
+        }
+        float max = Float.NEGATIVE_INFINITY;
+        for (float l : logits)
+            max = Math.max(max, l);
+        float[] probs = new float[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            probs[i] = (float) Math.exp((logits[i] - max) / temperature);
+            sum += probs[i];
+        }
+        // Only candidates above a small cutoff can be in the nucleus; sort just those
+        float cutoff = (float) ((1 - 0.95) / (n - 1) * sum);
+        Integer[] idx = new Integer[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (probs[i] >= cutoff)
+                idx[m++] = i;
+        }
+        Arrays.sort(idx, 0, m, (a, b) -> Float.compare(probs[b], probs[a]));
+        double cumulative = 0;
+        int last = m - 1;
+        for (int i = 0; i < m; i++) {
+            cumulative += probs[idx[i]];
+            if (cumulative > 0.95 * sum) {
+                last = i;
+                break;
+            }
+        }
+        double r = ThreadLocalRandom.current().nextDouble() * cumulative;
+        double acc = 0;
+        for (int i = 0; i <= last; i++) {
+            acc += probs[idx[i]];
+            if (acc >= r)
+                return idx[i];
+        }
+        return idx[last];
+    }
+
+    private int[] encode(List<ChatMessage> messages) {
+        Tokenizer tok = model.tokenizer;
+        List<Integer> out = new ArrayList<>();
+        if (tok.addBos || template == Template.LLAMA3)
+            out.add(tok.bos);
+        switch (template) {
+            case LLAMA3 -> {
+                int start = tok.special("<|start_header_id|>");
+                int end = tok.special("<|end_header_id|>");
+                int eot = tok.special("<|eot_id|>");
+                for (ChatMessage m : messages) {
+                    out.add(start);
+                    tok.encode(m.role(), out);
+                    out.add(end);
+                    tok.encode("\n\n" + m.content().trim(), out);
+                    out.add(eot);
+                }
+                out.add(start);
+                tok.encode("assistant", out);
+                out.add(end);
+                tok.encode("\n\n", out);
+            }
+            case CHATML -> {
+                int start = tok.special("<|im_start|>");
+                int end = tok.special("<|im_end|>");
+                for (ChatMessage m : messages) {
+                    out.add(start);
+                    tok.encode(m.role() + "\n" + m.content(), out);
+                    out.add(end);
+                    tok.encode("\n", out);
+                }
+                out.add(start);
+                tok.encode("assistant\n", out);
+            }
+            case INST -> {
+                String system = null;
+                for (ChatMessage m : messages) {
+                    switch (m.role()) {
+                        case "system" -> system = m.content();
+                        case "assistant" -> {
+                            tok.encode(" " + m.content(), out);
+                            if (tok.eos >= 0)
+                                out.add(tok.eos);
+                            if (tok.bos >= 0)
+                                out.add(tok.bos);
+                        }
+                        default -> {
+                            String user = system != null ? system + "\n\n" + m.content() : m.content();
+                            system = null;
+                            tok.encode("[INST] " + user + " [/INST]", out);
+                        }
+                    }
+                }
+            }
+        }
+        return out.stream().mapToInt(Integer::intValue).filter(id -> id >= 0).toArray();
+    }
+
+    private void close() {
+        try {
+            model.close();
+        } catch (Exception e) {
+            FabricAiChatMod.LOGGER.debug("AI local model close failed: {}", e.toString());
+        }
+    }
+
+    public static String summary() {
+        return "Local model prompt=" + PROMPT_TOKENS.sum() + " reused=" + REUSED_TOKENS.sum() + " generated="
+                + GENERATED_TOKENS.sum();
+    }
+}
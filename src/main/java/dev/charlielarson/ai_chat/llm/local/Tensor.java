@@ -0,0 +1,258 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A memory-mapped weight matrix. GGUF stores matrices row-major with dims[0]
+ * as the row length, so row i holds the weights for output i. Dot products
+ * dequantize on the fly, one block at a time.
+ * <p>
+ * Q6_K is supported because llama.cpp's Q4_0 and Q8_0 files keep the output
+ * (and sometimes the embedding) matrix in it; other k-quants such as Q4_K_M
+ * are not.
+ */
+final class Tensor {
+    static final int F32 = 0;
+    static final int F16 = 1;
+    static final int Q4_0 = 2;
+    static final int Q8_0 = 8;
+    static final int Q6_K = 14;
+
+    private static final int QK = 32; // values per quantized block
+    private static final int Q8_0_BLOCK = 2 + QK;
+    private static final int Q4_0_BLOCK = 2 + QK / 2;
+    private static final int QK_K = 256; // values per k-quant super-block
+    // Low 4 bits, high 2 bits, 16 int8 sub-block scales, f16 scale
+    private static final int Q6_K_BLOCK = QK_K / 2 + QK_K / 4 + QK_K / 16 + 2;
+
+    final String name;
+    final int type;
+    final int cols;
+    final int rows;
+    private final ByteBuffer data;
+    private final long rowBytes;
+
+    Tensor(String name, int type, long[] dims, ByteBuffer data) throws IOException {
+        this.name = name;
+        this.type = type;
+        this.cols = (int) dims[0];
+        this.rows = dims.length > 1 ? (int) dims[1] : 1;
+        this.data = data;
+        this.rowBytes = byteSize(type, cols);
+    }
+
+    static long byteSize(int type, long elements) throws IOException {
+        switch (type) {
+            case F32:
+                return elements * 4;
+            case F16:
+                return elements * 2;
+            case Q8_0:
+                return elements / QK * Q8_0_BLOCK;
+            case Q4_0:
+                return elements / QK * Q4_0_BLOCK;
+            case Q6_K:
+                return elements / QK_K * Q6_K_BLOCK;
+            default:
+                throw new IOException("Unsupported tensor type " + type
+                        + " (supported: F32, F16, Q8_0, Q4_0, Q6_K; try a Q8_0 or Q4_0 GGUF)");
+        }
+    }
+
+    /**
+     * Dot product of row r with x[0, cols).
+     */
+    float dot(int r, float[] x) {
+        int base = (int) (r * rowBytes);
+        switch (type) {
+            case Q8_0:
+                return dotQ8(base, x);
+            case Q4_0:
+                return dotQ4(base, x);
+            case Q6_K:
+                return dotQ6K(base, x);
+            case F16: {
+                float s = 0;
+                for (int i = 0; i < cols; i++)
+                    s += Float.float16ToFloat(data.getShort(base + i * 2)) * x[i];
+                return s;
+            }
+            default: {
+                float s = 0;
+                for (int i = 0; i < cols; i++)
+                    s += data.getFloat(base + i * 4) * x[i];
+                return s;
+            }
+        }
+    }
+
+    private float dotQ8(int base, float[] x) {
+        float sum = 0;
+        int blocks = cols / QK;
+        for (int b = 0; b < blocks; b++) {
+            int off = base + b * Q8_0_BLOCK;
+            float d = Float.float16ToFloat(data.getShort(off));
+            int q = off + 2;
+            int xi = b * QK;
+            float s0 = 0, s1 = 0;
+            for (int j = 0; j < QK; j += 2) {
+                s0 += data.get(q + j) * x[xi + j];
+                s1 += data.get(q + j + 1) * x[xi + j + 1];
+            }
+            sum += d * (s0 + s1);
+        }
+        return sum;
+    }
+
+    private float dotQ4(int base, float[] x) {
+        float sum = 0;
+        int blocks = cols / QK;
+        for (int b = 0; b < blocks; b++) {
+            int off = base + b * Q4_0_BLOCK;
+            float d = Float.float16ToFloat(data.getShort(off));
+            int q = off + 2;
+            int xi = b * QK;
+            float s = 0;
+            // Low nibbles hold values 0..15 of the block, high nibbles 16..31
+            for (int j = 0; j < QK / 2; j++) {
+                int v = data.get(q + j);
+                s += ((v & 0x0F) - 8) * x[xi + j];
+                s += (((v >> 4) & 0x0F) - 8) * x[xi + j + QK / 2];
+            }
+            sum += d * s;
+        }
+        return sum;
+    }
+
+    /**
+     * Each 256-value block is two halves of 128; within a half, byte l of the
+     * low-bit and high-bit arrays packs values l, l+32, l+64 and l+96. Every
+     * 16 values share an int8 scale.
+     */
+    private float dotQ6K(int base, float[] x) {
+        float sum = 0;
+        int blocks = cols / QK_K;
+        for (int b = 0; b < blocks; b++) {
+            int off = base + b * Q6_K_BLOCK;
+            int ql = off;
+            int qh = off + QK_K / 2;
+            int sc = qh + QK_K / 4;
+            float d = Float.float16ToFloat(data.getShort(sc + QK_K / 16));
+            int xi = b * QK_K;
+            float s = 0;
+            for (int half = 0; half < 2; half++) {
+                float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                float t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+                for (int l = 0; l < 32; l++) {
+                    int lo0 = data.get(ql + l) & 0xFF;
+                    int lo1 = data.get(ql + l + 32) & 0xFF;
+                    int hi = data.get(qh + l) & 0xFF;
+                    float p0 = ((lo0 & 0x0F) | ((hi & 3) << 4)) - 32;
+                    float p1 = ((lo1 & 0x0F) | (((hi >> 2) & 3) << 4)) - 32;
+                    float p2 = ((lo0 >> 4) | (((hi >> 4) & 3) << 4)) - 32;
+                    float p3 = ((lo1 >> 4) | (((hi >> 6) & 3) << 4)) - 32;
+                    // Sub-block scale changes at l == 16
+                    if (l < 16) {
+                        s0 += p0 * x[xi + l];
+                        s1 += p1 * x[xi + l + 32];
+                        s2 += p2 * x[xi + l + 64];
+                        s3 += p3 * x[xi + l + 96];
+                    } else {
+                        t0 += p0 * x[xi + l];
+                        t1 += p1 * x[xi + l + 32];
+                        t2 += p2 * x[xi + l + 64];
+                        t3 += p3 * x[xi + l + 96];
+                    }
+                }
+                s += data.get(sc) * s0 + data.get(sc + 1) * t0 + data.get(sc + 2) * s1 + data.get(sc + 3) * t1
+                        + data.get(sc + 4) * s2 + data.get(sc + 5) * t2 + data.get(sc + 6) * s3
+                        + data.get(sc + 7) * t3;
+                ql += 64;
+                qh += 32;
+                sc += 8;
+                xi += 128;
+            }
+            sum += d * s;
+        }
+        return sum;
+    }
+
+    /**
+     * Dequantizes row r into out[0, cols).
+     */
+    void row(int r, float[] out) {
+        int base = (int) (r * rowBytes);
+        switch (type) {
+            case Q8_0:
+                for (int b = 0; b < cols / QK; b++) {
+                    int off = base + b * Q8_0_BLOCK;
+                    float d = Float.float16ToFloat(data.getShort(off));
+                    for (int j = 0; j < QK; j++)
+                        out[b * QK + j] = d * data.get(off + 2 + j);
+                }
+                break;
+            case Q4_0:
+                for (int b = 0; b < cols / QK; b++) {
+                    int off = base + b * Q4_0_BLOCK;
+                    float d = Float.float16ToFloat(data.getShort(off));
+                    for (int j = 0; j < QK / 2; j++) {
+                        int v = data.get(off + 2 + j);
+                        out[b * QK + j] = d * ((v & 0x0F) - 8);
+                        out[b * QK + j + QK / 2] = d * (((v >> 4) & 0x0F) - 8);
+                    }
+                }
+                break;
+            case Q6_K:
+                for (int b = 0; b < cols / QK_K; b++) {
+                    int off = base + b * Q6_K_BLOCK;
+                    int ql = off;
+                    int qh = off + QK_K / 2;
+                    int sc = qh + QK_K / 4;
+                    float d = Float.float16ToFloat(data.getShort(sc + QK_K / 16));
+                    int y = b * QK_K;
+                    for (int half = 0; half < 2; half++) {
+                        for (int l = 0; l < 32; l++) {
+                            int lo0 = data.get(ql + l) & 0xFF;
+                            int lo1 = data.get(ql + l + 32) & 0xFF;
+                            int hi = data.get(qh + l) & 0xFF;
+                            int is = l / 16;
+                            int q0 = ((lo0 & 0x0F) | ((hi & 3) << 4)) - 32;
+                            int q1 = ((lo1 & 0x0F) | (((hi >> 2) & 3) << 4)) - 32;
+                            int q2 = ((lo0 >> 4) | (((hi >> 4) & 3) << 4)) - 32;
+                            int q3 = ((lo1 >> 4) | (((hi >> 6) & 3) << 4)) - 32;
+                            out[y + l] = d * data.get(sc + is) * q0;
+                            out[y + l + 32] = d * data.get(sc + is + 2) * q1;
+                            out[y + l + 64] = d * data.get(sc + is + 4) * q2;
+                            out[y + l + 96] = d * data.get(sc + is + 6) * q3;
+                        }
+                        ql += 64;
+                        qh += 32;
+                        sc += 8;
+                        y += 128;
+                    }
+                }
+                break;
+            case F16:
+                for (int i = 0; i < cols; i++)
+                    out[i] = Float.float16ToFloat(data.getShort(base + i * 2));
+                break;
+            default:
+                for (int i = 0; i < cols; i++)
+                    out[i] = data.getFloat(base + i * 4);
+        }
+    }
+
+    /**
+     * Whole tensor as floats; for small vectors such as norm weights and biases.
+     */
+    float[] toFloats() {
+        float[] out = new float[cols * rows];
+        float[] tmp = new float[cols];
+        for (int r = 0; r < rows; r++) {
+            row(r, tmp);
+            System.arraycopy(tmp, 0, out, r * cols, cols);
+        }
+        return out;
+    }
+}
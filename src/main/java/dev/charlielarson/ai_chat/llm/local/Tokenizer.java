@@ -0,0 +1,218 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tokenizer built from the vocabulary embedded in a GGUF file. Handles the
+ * two vocabularies small chat models ship with: byte-level BPE with merge
+ * ranks ("gpt2", used by Llama 3 and Qwen) and score-based SentencePiece
+ * BPE with byte fallback ("llama", used by Llama 2, Mistral and TinyLlama).
+ * <p>
+ * Special tokens are never produced from text; the chat template looks them
+ * up by name with {@link #special(String)}.
+ */
+final class Tokenizer {
+    private static final int TYPE_CONTROL = 3;
+    private static final Pattern GPT2_SPLIT = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+                    + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private final String[] tokens;
+    private final float[] scores;
+    private final int[] types;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<String, Integer> mergeRanks;
+    private final boolean byteLevel;
+    private final char[] byteToChar = new char[256];
+    private final int[] charToByte;
+
+    final int bos;
+    final int eos;
+    final boolean addBos;
+
+    Tokenizer(GGUF gguf) throws IOException {
+        Object[] toks = gguf.array("tokenizer.ggml.tokens");
+        if (toks == null)
+            throw new IOException("GGUF file has no tokenizer vocabulary");
+        String model = gguf.string("tokenizer.ggml.model", "llama");
+        this.byteLevel = "gpt2".equals(model);
+        if (!byteLevel && !"llama".equals(model))
+            throw new IOException("Unsupported tokenizer " + model);
+
+        tokens = new String[toks.length];
+        for (int i = 0; i < toks.length; i++) {
+            tokens[i] = (String) toks[i];
+            ids.putIfAbsent(tokens[i], i);
+        }
+        Object[] sc = gguf.array("tokenizer.ggml.scores");
+        scores = new float[tokens.length];
+        if (sc != null) {
+            for (int i = 0; i < sc.length; i++)
+                scores[i] = ((Number) sc[i]).floatValue();
+        }
+        Object[] ty = gguf.array("tokenizer.ggml.token_type");
+        types = new int[tokens.length];
+        if (ty != null) {
+            for (int i = 0; i < ty.length; i++)
+                types[i] = ((Number) ty[i]).intValue();
+        }
+
+        mergeRanks = new HashMap<>();
+        Object[] merges = gguf.array("tokenizer.ggml.merges");
+        if (merges != null) {
+            for (int i = 0; i < merges.length; i++)
+                mergeRanks.putIfAbsent((String) merges[i], i);
+        }
+
+        // GPT-2 byte-to-unicode table: printable bytes map to themselves, the rest to U+0100 onwards
+        int n = 0;
+        for (int b = 0; b < 256; b++) {
+            boolean printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE && b <= 0xFF);
+            byteToChar[b] = printable ? (char) b : (char) (256 + n++);
+        }
+        charToByte = new int[256 + n];
+        for (int b = 0; b < 256; b++)
+            charToByte[byteToChar[b]] = b;
+
+        bos = gguf.integer("tokenizer.ggml.bos_token_id", -1);
+        eos = gguf.integer("tokenizer.ggml.eos_token_id", -1);
+        addBos = gguf.bool("tokenizer.ggml.add_bos_token", !byteLevel) && bos >= 0;
+    }
+
+    int vocabSize() {
+        return tokens.length;
+    }
+
+    /**
+     * Id of a special token such as "<|eot_id|>", or -1 if the vocabulary
+     * does not have it.
+     */
+    int special(String token) {
+        Integer id = ids.get(token);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Appends the tokens of text to out. A prompt is encoded in pieces around
+     * its special tokens, so SentencePiece's dummy "▁" prefix is only added
+     * where the text starts: when out is empty or ends with BOS.
+     */
+    void encode(String text, List<Integer> out) {
+        if (text.isEmpty())
+            return;
+        if (byteLevel) {
+            encodeByteLevel(text, out);
+        } else {
+            boolean start = out.isEmpty() || (bos >= 0 && out.get(out.size() - 1) == bos);
+            encodeSentencePiece(start ? " " + text : text, out);
+        }
+    }
+
+    private void encodeByteLevel(String text, List<Integer> out) {
+        Matcher m = GPT2_SPLIT.matcher(text);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            sb.setLength(0);
+            for (byte b : m.group().getBytes(StandardCharsets.UTF_8))
+                sb.append(byteToChar[b & 0xFF]);
+            String word = sb.toString();
+            Integer whole = ids.get(word);
+            if (whole != null) {
+                out.add(whole);
+                continue;
+            }
+            List<String> parts = new ArrayList<>(word.length());
+            for (int i = 0; i < word.length(); i++)
+                parts.add(String.valueOf(word.charAt(i)));
+            while (parts.size() > 1) {
+                int best = -1;
+                int bestRank = Integer.MAX_VALUE;
+                for (int i = 0; i + 1 < parts.size(); i++) {
+                    Integer rank = mergeRanks.get(parts.get(i) + " " + parts.get(i + 1));
+                    if (rank != null && rank < bestRank) {
+                        bestRank = rank;
+                        best = i;
+                    }
+                }
+                if (best < 0)
+                    break;
+                parts.set(best, parts.get(best) + parts.remove(best + 1));
+            }
+            for (String p : parts) {
+                Integer id = ids.get(p);
+                if (id != null)
+                    out.add(id);
+            }
+        }
+    }
+
+    private void encodeSentencePiece(String text, List<Integer> out) {
+        String s = text.replace(' ', '▁');
+        List<Integer> parts = new ArrayList<>(s.length());
+        for (int i = 0; i < s.length(); ) {
+            int cp = s.codePointAt(i);
+            String ch = new String(Character.toChars(cp));
+            i += Character.charCount(cp);
+            Integer id = ids.get(ch);
+            if (id != null) {
+                parts.add(id);
+            } else {
+                for (byte b : ch.getBytes(StandardCharsets.UTF_8)) {
+                    Integer bid = ids.get(String.format("<0x%02X>", b & 0xFF));
+                    if (bid != null)
+                        parts.add(bid);
+                }
+            }
+        }
+        // Repeatedly merge the adjacent pair whose concatenation scores highest
+        while (parts.size() > 1) {
+            int best = -1;
+            int bestId = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i + 1 < parts.size(); i++) {
+                Integer id = ids.get(tokens[parts.get(i)] + tokens[parts.get(i + 1)]);
+                if (id != null && scores[id] > bestScore) {
+                    bestScore = scores[id];
+                    best = i;
+                    bestId = id;
+                }
+            }
+            if (best < 0)
+                break;
+            parts.set(best, bestId);
+            parts.remove(best + 1);
+        }
+        out.addAll(parts);
+    }
+
+    /**
+     * Appends the raw bytes of a token; control tokens produce nothing.
+     */
+    void decode(int token, ByteArrayOutputStream out) {
+        if (token < 0 || token >= tokens.length || types[token] == TYPE_CONTROL)
+            return;
+        String t = tokens[token];
+        if (byteLevel) {
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                if (c < charToByte.length)
+                    out.write(charToByte[c]);
+            }
+            return;
+        }
+        if (t.length() == 6 && t.startsWith("<0x") && t.endsWith(">")) {
+            out.write(Integer.parseInt(t.substring(3, 5), 16));
+            return;
+        }
+        byte[] b = t.replace('▁', ' ').getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+    }
+}
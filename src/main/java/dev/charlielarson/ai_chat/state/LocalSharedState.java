@@ -0,0 +1,166 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import dev.charlielarson.ai_chat.util.ConversationHistory;
+import dev.charlielarson.ai_chat.util.RateLimiter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process state for a single server. Also serves as the near cache of
+ * {@link RedisSharedState}.
+ */
+public class LocalSharedState implements SharedState {
+    private final ModConfig cfg;
+    private final Map<UUID, ConversationHistory> history;
+    private final RateLimiter limiter;
+    private final Map<String, String> responses;
+    private final Set<UUID> online;
+
+    /**
+     * @param previous state built for the previous config; its history and
+     *                 online players are kept so a reload does not wipe
+     *                 conversations
+     */
+    public LocalSharedState(ModConfig cfg, LocalSharedState previous) {
+        this.cfg = cfg;
+        this.history = previous != null ? previous.history : new ConcurrentHashMap<>();
+        this.online = previous != null ? previous.online : ConcurrentHashMap.newKeySet();
+        this.limiter = new RateLimiter(Math.max(0, cfg.cooldownSeconds));
+        int maxResponses = cfg.semanticCacheMaxEntries > 0 ? cfg.semanticCacheMaxEntries : 512;
+        this.responses = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxResponses;
+            }
+        });
+    }
+
+    @Override
+    public void loadHistory(UUID player, List<ChatMessage> out) {
+        ConversationHistory h = historyFor(player);
+        if (h != null)
+            h.appendTo(out);
+    }
+
+    @Override
+    public void appendExchange(UUID player, String userMsg, String assistantMsg) {
+        ConversationHistory h = historyFor(player);
+        if (h == null)
+            return;
+        h.add(ConversationHistory.Role.USER, userMsg);
+        h.add(ConversationHistory.Role.ASSISTANT, assistantMsg);
+    }
+
+    @Override
+    public void clearHistory(UUID player) {
+        history.remove(player);
+    }
+
+    /**
+     * Replaces the player's history with a copy fetched from elsewhere; an
+     * empty list clears it.
+     */
+    void replaceHistory(UUID player, List<ChatMessage> messages) {
+        if (cfg.maxHistory <= 0 || messages.isEmpty()) {
+            history.remove(player);
+            return;
+        }
+        ConversationHistory fresh = new ConversationHistory(cfg.maxHistory * 2, cfg.historyCompressCold);
+        for (ChatMessage m : messages)
+            fresh.add(roleOf(m.role()), m.content());
+        history.put(player, fresh);
+    }
+
+    @Override
+    public String getResponse(String key) {
+        return responses.get(key);
+    }
+
+    @Override
+    public void putResponse(String key, String answer) {
+        responses.put(key, answer);
+    }
+
+    @Override
+    public boolean tryAcquire(UUID player) {
+        return limiter.tryAcquire(player);
+    }
+
+    @Override
+    public long remaining(UUID player) {
+        return limiter.remaining(player);
+    }
+
+    void seedCooldown(UUID player, long epochSecond) {
+        limiter.seed(player, epochSecond);
+    }
+
+    /**
+     * Players currently connected to this server.
+     */
+    Set<UUID> online() {
+        return online;
+    }
+
+    @Override
+    public void onJoin(UUID player) {
+        online.add(player);
+    }
+
+    @Override
+    public void onLeave(UUID player) {
+        online.remove(player);
+        // The cooldown stays until it expires (evictIdle), or relogging would skip it
+        if (cfg.historyClearOnDisconnect)
+            history.remove(player);
+    }
+
+    @Override
+    public void evictIdle() {
+        if (cfg.historyIdleTtlMinutes > 0) {
+            long cutoff = System.currentTimeMillis() - cfg.historyIdleTtlMinutes * 60_000L;
+            history.values().removeIf(h -> h.lastUsedMillis() < cutoff);
+        }
+        limiter.purgeExpired();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String summary() {
+        return "State local players=" + history.size() + " cachedResponses=" + responses.size();
+    }
+
+    /**
+     * Returns the player's history ring, or null when history is disabled
+     * (maxHistory <= 0). Rings are resized when maxHistory changes.
+     */
+    private ConversationHistory historyFor(UUID id) {
+        if (cfg.maxHistory <= 0) {
+            history.remove(id);
+            return null;
+        }
+        int capacity = cfg.maxHistory * 2; // pairs of user+assistant
+        return history.compute(id, (k, old) -> {
+            if (old != null && old.capacity() == capacity)
+                return old;
+            ConversationHistory fresh = new ConversationHistory(capacity, cfg.historyCompressCold);
+            if (old != null) {
+                List<ChatMessage> keep = new ArrayList<>();
+                old.appendTo(keep);
+                for (ChatMessage m : keep)
+                    fresh.add(roleOf(m.role()), m.content());
+            }
+            return fresh;
+        });
+    }
+
+    private static ConversationHistory.Role roleOf(String role) {
+        return "user".equals(role) ? ConversationHistory.Role.USER : ConversationHistory.Role.ASSISTANT;
+    }
+}
@@ -0,0 +1,419 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State shared between servers through a Redis-protocol store. All reads
+ * are answered from a {@link LocalSharedState} near cache; the store is only
+ * touched from a single background I/O thread:
+ * <ul>
+ * <li>writes are queued and sent as one pipelined batch every
+ * sharedStateFlushMillis</li>
+ * <li>a joining player's history and cooldown are fetched when they join, so
+ * they are usually warm by the time the player asks anything; the fetched
+ * history replaces the local copy, which may be stale from an earlier
+ * visit, and exchanges appended here while the fetch was in flight are kept
+ * on top of it</li>
+ * <li>cooldowns of online players are re-read every second, so a request
+ * made through another server is honoured here too</li>
+ * <li>a response-cache miss triggers a background fetch that warms the near
+ * cache for the next identical question</li>
+ * </ul>
+ * If the store is unreachable the server keeps working on local state. A
+ * batch that fails to send is retried with backoff until it succeeds; new
+ * writes queue up behind it and are dropped (and logged) only once the queue
+ * is full. The client is not thread-safe, so even the final flush on close
+ * runs on the I/O thread.
+ */
+public class RedisSharedState implements SharedState {
+    private static final int MAX_PENDING_WRITES = 10_000;
+    private static final int MAX_BATCH = 512;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final long COOLDOWN_SYNC_MILLIS = 1000;
+    private static final long CLOSE_WAIT_MILLIS = 2000;
+
+    public static final LongAdder BATCHES = new LongAdder();
+    public static final LongAdder WRITES = new LongAdder();
+    public static final LongAdder DROPPED_WRITES = new LongAdder();
+    public static final LongAdder ERRORS = new LongAdder();
+
+    private final LocalSharedState near;
+    private final RespClient client;
+    private final String prefix;
+    private final int maxHistoryMessages;
+    private final long historyTtlSec;
+    private final long responseTtlSec;
+    private final int cooldownSeconds;
+
+    private final Queue<String[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Set<String> inflightFetches = ConcurrentHashMap.newKeySet();
+    // Exchanges appended here while the player's join fetch is in flight
+    private final Map<UUID, List<ChatMessage>> joinAppends = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService io;
+    private final LongAdder droppedSinceFlush = new LongAdder();
+    private final AtomicBoolean dropping = new AtomicBoolean();
+    private volatile boolean failing;
+
+    // Guarded by this (flush)
+    private List<String[]> unsent;
+    private long backoffMillis;
+    private long retryAt;
+
+    public RedisSharedState(ModConfig cfg, LocalSharedState near) {
+        this.near = near;
+        this.client = new RespClient(cfg.redisHost, cfg.redisPort > 0 ? cfg.redisPort : 6379, cfg.redisPassword,
+                cfg.redisDatabase, 2000);
+        this.prefix = cfg.redisKeyPrefix != null ? cfg.redisKeyPrefix : "ai-chat:";
+        this.maxHistoryMessages = Math.max(0, cfg.maxHistory * 2);
+        this.historyTtlSec = (cfg.redisHistoryTtlMinutes > 0 ? cfg.redisHistoryTtlMinutes : 1440) * 60L;
+        this.responseTtlSec = (cfg.redisResponseTtlMinutes > 0 ? cfg.redisResponseTtlMinutes : 60) * 60L;
+        this.cooldownSeconds = Math.max(0, cfg.cooldownSeconds);
+        this.io = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AI Chat shared state");
+            t.setDaemon(true);
+            return t;
+        });
+        long flush = cfg.sharedStateFlushMillis > 0 ? cfg.sharedStateFlushMillis : 50;
+        io.scheduleWithFixedDelay(() -> flush(false), flush, flush, TimeUnit.MILLISECONDS);
+        if (cooldownSeconds > 0)
+            io.scheduleWithFixedDelay(() -> run(this::syncCooldowns), COOLDOWN_SYNC_MILLIS, COOLDOWN_SYNC_MILLIS,
+                    TimeUnit.MILLISECONDS);
+    }
+
+    LocalSharedState nearCache() {
+        return near;
+    }
+
+    @Override
+    public void loadHistory(UUID player, List<ChatMessage> out) {
+        near.loadHistory(player, out);
+    }
+
+    @Override
+    public void appendExchange(UUID player, String userMsg, String assistantMsg) {
+        // Atomic with the join fetch replacing the history, so the exchange is either replaced and re-added or
+        // appended after the replacement
+        joinAppends.compute(player, (k, since) -> {
+            near.appendExchange(player, userMsg, assistantMsg);
+            if (since != null) {
+                since.add(new ChatMessage("user", userMsg));
+                since.add(new ChatMessage("assistant", assistantMsg));
+            }
+            return since;
+        });
+        if (maxHistoryMessages == 0)
+            return;
+        String key = historyKey(player);
+        enqueue("RPUSH", key, "u" + userMsg, "a" + assistantMsg);
+        enqueue("LTRIM", key, Integer.toString(-maxHistoryMessages), "-1");
+        enqueue("EXPIRE", key, Long.toString(historyTtlSec));
+    }
+
+    @Override
+    public void clearHistory(UUID player) {
+        near.clearHistory(player);
+        enqueue("DEL", historyKey(player));
+    }
+
+    @Override
+    public String getResponse(String key) {
+        String hit = near.getResponse(key);
+        if (hit == null)
+            fetchResponse(key);
+        return hit;
+    }
+
+    @Override
+    public void putResponse(String key, String answer) {
+        near.putResponse(key, answer);
+        enqueue("SET", responseKey(key), answer, "EX", Long.toString(responseTtlSec));
+    }
+
+    @Override
+    public boolean tryAcquire(UUID player) {
+        if (!near.tryAcquire(player))
+            return false;
+        if (cooldownSeconds > 0) {
+            long now = System.currentTimeMillis() / 1000;
+            enqueue("SET", cooldownKey(player), Long.toString(now), "EX", Integer.toString(cooldownSeconds));
+        }
+        return true;
+    }
+
+    @Override
+    public long remaining(UUID player) {
+        return near.remaining(player);
+    }
+
+    @Override
+    public void onJoin(UUID player) {
+        near.onJoin(player);
+        submit(() -> {
+            // Appends before this point are flushed below; later ones may miss the LRANGE, so they are tracked
+            joinAppends.put(player, new ArrayList<>());
+            try {
+                // Send queued writes first so the fetched history includes this server's own appends
+                boolean sent = flush(true);
+                List<Object> replies = client.pipeline(List.of(
+                        new String[] { "LRANGE", historyKey(player), "0", "-1" },
+                        new String[] { "GET", cooldownKey(player) }));
+                if (replies.get(0) instanceof List<?> items && sent) {
+                    List<ChatMessage> msgs = new ArrayList<>(items.size());
+                    for (Object o : items) {
+                        if (o instanceof String s && !s.isEmpty())
+                            msgs.add(new ChatMessage(s.charAt(0) == 'u' ? "user" : "assistant", s.substring(1)));
+                    }
+                    joinAppends.compute(player, (k, since) -> {
+                        near.replaceHistory(player, since != null ? merge(msgs, since) : msgs);
+                        return null;
+                    });
+                }
+                seedCooldown(player, replies.get(1));
+            } finally {
+                joinAppends.remove(player);
+            }
+        });
+    }
+
+    /**
+     * The fetched history followed by the exchanges appended here since the
+     * fetch started. Those that were flushed before the fetch are already at
+     * the end of the fetched list and are not repeated.
+     */
+    static List<ChatMessage> merge(List<ChatMessage> fetched, List<ChatMessage> since) {
+        int overlap = Math.min(fetched.size(), since.size()) & ~1;
+        while (overlap > 0
+                && !fetched.subList(fetched.size() - overlap, fetched.size()).equals(since.subList(0, overlap)))
+            overlap -= 2;
+        List<ChatMessage> merged = new ArrayList<>(fetched.size() + since.size() - overlap);
+        merged.addAll(fetched);
+        merged.addAll(since.subList(overlap, since.size()));
+        return merged;
+    }
+
+    @Override
+    public void onLeave(UUID player) {
+        // The store keeps the player's state for the next server they join
+        near.onLeave(player);
+    }
+
+    @Override
+    public void evictIdle() {
+        near.evictIdle();
+    }
+
+    @Override
+    public void close() {
+        Future<?> last;
+        try {
+            // Queued behind any fetch already submitted; shutdown() then cancels the periodic tasks
+            last = io.submit(this::closeOnIoThread);
+        } catch (RejectedExecutionException e) {
+            return; // already closed
+        }
+        io.shutdown();
+        try {
+            last.get(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The I/O thread still owns the client; it sends the rest and closes it when the store answers
+            FabricAiChatMod.LOGGER.warn("Shared state store is slow to answer; finishing {} writes in the background",
+                    pendingCount.get());
+        } catch (ExecutionException e) {
+            FabricAiChatMod.LOGGER.warn("Shared state close failed: {}", e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeOnIoThread() {
+        try {
+            if (!flush(true)) {
+                int lost = unsent.size() + pendingCount.get();
+                DROPPED_WRITES.add(lost);
+                FabricAiChatMod.LOGGER.warn("Shared state store unreachable on close; dropped {} writes", lost);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Override
+    public String summary() {
+        return near.summary() + " | redis batches=" + BATCHES.sum() + " writes=" + WRITES.sum() + " pending="
+                + pendingCount.get() + " dropped=" + DROPPED_WRITES.sum() + " errors=" + ERRORS.sum()
+                + (failing ? " (unreachable)" : "");
+    }
+
+    private void fetchResponse(String key) {
+        if (!inflightFetches.add(key))
+            return;
+        submit(() -> {
+            try {
+                if (client.call("GET", responseKey(key)) instanceof String answer)
+                    near.putResponse(key, answer);
+            } finally {
+                inflightFetches.remove(key);
+            }
+        });
+    }
+
+    private void enqueue(String... cmd) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING_WRITES) {
+            pendingCount.decrementAndGet();
+            DROPPED_WRITES.increment();
+            droppedSinceFlush.increment();
+            if (dropping.compareAndSet(false, true))
+                FabricAiChatMod.LOGGER.warn("Shared state write queue is full; dropping writes until it drains");
+            return;
+        }
+        pending.add(cmd);
+    }
+
+    /**
+     * Sends queued writes in pipelined batches. A batch that fails is kept and
+     * retried first on a later call, after a backoff unless force is set.
+     * Retried commands may be applied twice if the failure came after the
+     * store received them; the history LTRIM keeps that bounded.
+     *
+     * @return true if nothing is left unsent
+     */
+    private synchronized boolean flush(boolean force) {
+        if (unsent != null && !force && System.currentTimeMillis() < retryAt)
+            return false;
+        while (true) {
+            List<String[]> batch = unsent;
+            if (batch == null) {
+                if (pending.isEmpty())
+                    return true;
+                batch = new ArrayList<>(Math.min(MAX_BATCH, pendingCount.get()));
+                String[] cmd;
+                while (batch.size() < MAX_BATCH && (cmd = pending.poll()) != null)
+                    batch.add(cmd);
+                pendingCount.addAndGet(-batch.size());
+                if (batch.isEmpty())
+                    return true;
+            }
+            try {
+                List<Object> replies = client.pipeline(batch);
+                BATCHES.increment();
+                WRITES.add(batch.size());
+                for (Object r : replies) {
+                    if (r instanceof RespClient.Error err) {
+                        ERRORS.increment();
+                        FabricAiChatMod.LOGGER.debug("Redis write error: {}", err.message());
+                    }
+                }
+                unsent = null;
+                backoffMillis = 0;
+                recovered();
+                if (dropping.compareAndSet(true, false))
+                    FabricAiChatMod.LOGGER.warn("Shared state write queue drained; {} writes were dropped",
+                            droppedSinceFlush.sumThenReset());
+            } catch (Exception e) {
+                unsent = batch;
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(100, backoffMillis * 2));
+                retryAt = System.currentTimeMillis() + backoffMillis;
+                failed(e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Re-reads the cooldowns of online players, so one started through
+     * another server applies here as well.
+     */
+    private void syncCooldowns() throws Exception {
+        List<UUID> players = new ArrayList<>(near.online());
+        if (players.isEmpty())
+            return;
+        for (int from = 0; from < players.size(); from += MAX_BATCH) {
+            List<UUID> chunk = players.subList(from, Math.min(players.size(), from + MAX_BATCH));
+            String[] cmd = new String[chunk.size() + 1];
+            cmd[0] = "MGET";
+            for (int i = 0; i < chunk.size(); i++)
+                cmd[i + 1] = cooldownKey(chunk.get(i));
+            if (client.call(cmd) instanceof List<?> values) {
+                for (int i = 0; i < values.size() && i < chunk.size(); i++)
+                    seedCooldown(chunk.get(i), values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Applies a stored cooldown start (epoch seconds). Anything else under the
+     * key was not written by us and is ignored rather than treated as a store
+     * failure.
+     */
+    private void seedCooldown(UUID player, Object stored) {
+        if (!(stored instanceof String s))
+            return;
+        try {
+            near.seedCooldown(player, Long.parseLong(s));
+        } catch (NumberFormatException e) {
+            FabricAiChatMod.LOGGER.debug("Ignoring malformed cooldown for {}: {}", player, s);
+        }
+    }
+
+    private interface IoTask {
+        void run() throws Exception;
+    }
+
+    private void submit(IoTask task) {
+        try {
+            io.execute(() -> run(task));
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    private void run(IoTask task) {
+        try {
+            task.run();
+            recovered();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    private void failed(Exception e) {
+        ERRORS.increment();
+        if (!failing) {
+            failing = true;
+            FabricAiChatMod.LOGGER.warn("Shared state store unreachable, using local state: {}", e.toString());
+        }
+    }
+
+    private void recovered() {
+        if (failing) {
+            failing = false;
+            FabricAiChatMod.LOGGER.info("Shared state store reachable again.");
+        }
+    }
+
+    private String historyKey(UUID player) {
+        return prefix + "hist:" + player;
+    }
+
+    private String cooldownKey(UUID player) {
+        return prefix + "cd:" + player;
+    }
+
+    private String responseKey(String key) {
+        return prefix + "resp:" + key;
+    }
+}
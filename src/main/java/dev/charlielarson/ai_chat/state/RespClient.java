@@ -0,0 +1,173 @@
+package dev.charlielarson.ai_chat.state;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal Redis-protocol (RESP2) client. Not thread-safe; used only from the
+ * {@link RedisSharedState} I/O thread. Works with Redis, Valkey, KeyDB and
+ * other RESP-compatible stores.
+ */
+final class RespClient implements Closeable {
+    /**
+     * Error reply from the server.
+     */
+    record Error(String message) {
+    }
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int database;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private BufferedInputStream in;
+    private BufferedOutputStream out;
+
+    RespClient(String host, int port, String password, int database, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.database = database;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sends all commands in one write and reads their replies in order.
+     * Drops the connection on I/O errors so the next call reconnects.
+     */
+    List<Object> pipeline(List<String[]> commands) throws IOException {
+        try {
+            ensureConnected();
+            for (String[] cmd : commands)
+                writeCommand(cmd);
+            out.flush();
+            List<Object> replies = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++)
+                replies.add(readReply());
+            return replies;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    Object call(String... cmd) throws IOException {
+        return pipeline(List.<String[]>of(cmd)).get(0);
+    }
+
+    private void ensureConnected() throws IOException {
+        if (socket != null && socket.isConnected() && !socket.isClosed())
+            return;
+        Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(timeoutMillis);
+        s.connect(new InetSocketAddress(host, port), timeoutMillis);
+        socket = s;
+        in = new BufferedInputStream(s.getInputStream());
+        out = new BufferedOutputStream(s.getOutputStream());
+        List<String[]> init = new ArrayList<>();
+        if (password != null && !password.isEmpty())
+            init.add(new String[] { "AUTH", password });
+        if (database > 0)
+            init.add(new String[] { "SELECT", Integer.toString(database) });
+        if (init.isEmpty())
+            return;
+        for (String[] cmd : init)
+            writeCommand(cmd);
+        out.flush();
+        for (int i = 0; i < init.size(); i++) {
+            Object r = readReply();
+            if (r instanceof Error err) {
+                close();
+                throw new IOException("Redis " + init.get(i)[0] + " failed: " + err.message());
+            }
+        }
+    }
+
+    private void writeCommand(String[] cmd) throws IOException {
+        out.write('*');
+        writeDecimal(cmd.length);
+        for (String arg : cmd) {
+            byte[] b = arg.getBytes(StandardCharsets.UTF_8);
+            out.write('$');
+            writeDecimal(b.length);
+            out.write(b);
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    private void writeDecimal(int n) throws IOException {
+        out.write(Integer.toString(n).getBytes(StandardCharsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private Object readReply() throws IOException {
+        int type = in.read();
+        if (type < 0)
+            throw new EOFException("Redis connection closed");
+        String line = readLine();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new Error(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int len = Integer.parseInt(line);
+                if (len < 0)
+                    return null;
+                byte[] b = in.readNBytes(len);
+                if (b.length < len)
+                    throw new EOFException("Redis connection closed");
+                readLine(); // trailing CRLF
+                return new String(b, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int n = Integer.parseInt(line);
+                if (n < 0)
+                    return null;
+                List<Object> items = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    items.add(readReply());
+                return items;
+            }
+            default:
+                throw new IOException("Unexpected Redis reply type: " + (char) type);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(32);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\r') {
+                in.read(); // '\n'
+                return buf.toString(StandardCharsets.UTF_8);
+            }
+            buf.write(c);
+        }
+        throw new EOFException("Redis connection closed");
+    }
+
+    @Override
+    public void close() {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+}
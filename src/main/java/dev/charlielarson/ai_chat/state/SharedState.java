@@ -0,0 +1,59 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Per-player and server-wide state that can be shared between servers:
+ * conversation history, cached responses and rate-limit cooldowns. Every
+ * method is called on a request path and must answer from memory;
+ * implementations backed by a remote store sync in the background.
+ */
+public interface SharedState {
+    /**
+     * Appends the player's history, oldest first, to out.
+     */
+    void loadHistory(UUID player, List<ChatMessage> out);
+
+    void appendExchange(UUID player, String userMsg, String assistantMsg);
+
+    void clearHistory(UUID player);
+
+    /**
+     * Cached answer for a normalized question key, or null.
+     */
+    String getResponse(String key);
+
+    void putResponse(String key, String answer);
+
+    boolean tryAcquire(UUID player);
+
+    /**
+     * Seconds left on the player's cooldown.
+     */
+    long remaining(UUID player);
+
+    /**
+     * A player joined; remote backends start loading their state here.
+     */
+    void onJoin(UUID player);
+
+    /**
+     * A player left; local copies of their state may be dropped.
+     */
+    void onLeave(UUID player);
+
+    /**
+     * Periodic housekeeping: drop idle history and expired cooldowns.
+     */
+    void evictIdle();
+
+    /**
+     * Flush pending writes and release resources.
+     */
+    void close();
+
+    String summary();
+}
@@ -0,0 +1,50 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+
+/**
+ * Holds the shared state backend for the current config. History survives
+ * config reloads; cooldowns restart, as they always have on reload.
+ */
+public final class SharedStates {
+    private static SharedState shared;
+    private static ModConfig sharedFor;
+
+    private SharedStates() {
+    }
+
+    public static synchronized SharedState forConfig(ModConfig cfg) {
+        if (shared != null && cfg == sharedFor)
+            return shared;
+        SharedState old = shared;
+        LocalSharedState previous = null;
+        if (old instanceof RedisSharedState redis)
+            previous = redis.nearCache();
+        else if (old instanceof LocalSharedState local)
+            previous = local;
+
+        LocalSharedState local = new LocalSharedState(cfg, previous);
+        if ("redis".equalsIgnoreCase(cfg.sharedStateBackend)) {
+            FabricAiChatMod.LOGGER.info("AI shared state: redis at {}:{}", cfg.redisHost, cfg.redisPort);
+            shared = new RedisSharedState(cfg, local);
+        } else {
+            shared = local;
+        }
+        sharedFor = cfg;
+        if (old != null) {
+            // Closing may wait on the network to flush writes; keep that off the server thread
+            Thread closer = new Thread(old::close, "AI Chat shared state close");
+            closer.setDaemon(true);
+            closer.start();
+        }
+        return shared;
+    }
+
+    public static synchronized void shutdown() {
+        if (shared != null)
+            shared.close();
+        shared = null;
+        sharedFor = null;
+    }
+}
@@ -0,0 +1,149 @@
+package dev.charlielarson.ai_chat.util;
+
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Fixed-capacity per-player message ring. Roles are stored as one byte and
+ * content as UTF-8 bytes; turns that fall out of the most recent few can be
+ * deflated, since they are only read back when building the next prompt.
+ */
+public final class ConversationHistory {
+    public enum Role {
+        USER("user"), ASSISTANT("assistant");
+
+        public final String id;
+
+        Role(String id) {
+            this.id = id;
+        }
+    }
+
+    private static final Role[] ROLES = Role.values();
+    // Messages newer than this are never compressed
+    private static final int HOT_MESSAGES = 4;
+    // Below this, deflate headers cost more than they save
+    private static final int MIN_COMPRESS_BYTES = 256;
+
+    private final byte[] roles;
+    private final byte[][] contents;
+    private final int[] rawLengths; // uncompressed length, or -1 when stored raw
+    private final boolean compressCold;
+    private int start;
+    private int size;
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+
+    public ConversationHistory(int capacity, boolean compressCold) {
+        int cap = Math.max(2, capacity);
+        this.roles = new byte[cap];
+        this.contents = new byte[cap][];
+        this.rawLengths = new int[cap];
+        this.compressCold = compressCold;
+    }
+
+    public int capacity() {
+        return roles.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long lastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    /**
+     * Appends a message, overwriting the oldest when full.
+     */
+    public synchronized void add(Role role, String content) {
+        int cap = roles.length;
+        int slot;
+        if (size < cap) {
+            slot = (start + size) % cap;
+            size++;
+        } else {
+            slot = start;
+            start = (start + 1) % cap;
+        }
+        roles[slot] = (byte) role.ordinal();
+        contents[slot] = (content != null ? content : "").getBytes(StandardCharsets.UTF_8);
+        rawLengths[slot] = -1;
+        lastUsedMillis = System.currentTimeMillis();
+        if (compressCold && size > HOT_MESSAGES)
+            compress((start + size - 1 - HOT_MESSAGES) % cap);
+    }
+
+    /**
+     * Decodes all messages, oldest first, into out.
+     */
+    public synchronized void appendTo(List<ChatMessage> out) {
+        int cap = roles.length;
+        for (int i = 0; i < size; i++) {
+            int slot = (start + i) % cap;
+            out.add(new ChatMessage(ROLES[roles[slot]].id, decode(slot)));
+        }
+        lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Approximate bytes held by message payloads (excluding fixed arrays).
+     */
+    public synchronized long payloadBytes() {
+        long total = 0;
+        for (byte[] c : contents) {
+            if (c != null)
+                total += c.length;
+        }
+        return total;
+    }
+
+    private void compress(int slot) {
+        byte[] raw = contents[slot];
+        if (rawLengths[slot] >= 0 || raw.length < MIN_COMPRESS_BYTES)
+            return;
+        Deflater d = new Deflater(Deflater.BEST_SPEED);
+        try {
+            d.setInput(raw);
+            d.finish();
+            byte[] out = new byte[raw.length];
+            int n = d.deflate(out);
+            // Keep raw if incompressible
+            if (!d.finished() || n >= raw.length)
+                return;
+            byte[] packed = new byte[n];
+            System.arraycopy(out, 0, packed, 0, n);
+            contents[slot] = packed;
+            rawLengths[slot] = raw.length;
+        } finally {
+            d.end();
+        }
+    }
+
+    private String decode(int slot) {
+        byte[] c = contents[slot];
+        int rawLen = rawLengths[slot];
+        if (rawLen < 0)
+            return new String(c, StandardCharsets.UTF_8);
+        Inflater inf = new Inflater();
+        try {
+            inf.setInput(c);
+            byte[] out = new byte[rawLen];
+            int n = inf.inflate(out);
+            return new String(out, 0, n, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return "";
+        } finally {
+            inf.end();
+        }
+    }
+}
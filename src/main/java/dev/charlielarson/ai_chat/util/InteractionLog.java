@@ -0,0 +1,277 @@
+package dev.charlielarson.ai_chat.util;
+
+import com.google.gson.Gson;
+import dev.charlielarson.ai_chat.FabricAiChatMod;
+import dev.charlielarson.ai_chat.config.ModConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Structured audit trail of AI interactions, written off the request path.
+ * Request threads only publish a record into a bounded lock-free ring; a
+ * single background thread formats records as JSON lines and writes them in
+ * batches through a FileChannel, rotating by size and age. When the ring is
+ * full, records are dropped and counted rather than blocking the caller.
+ */
+public final class InteractionLog {
+    public record Entry(long time, String player, String provider, String model, long latencyMs,
+            int promptTokens, int completionTokens, String toolCall, String outcome) {
+    }
+
+    private static final int CAPACITY = 4096; // power of two
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final String FILE_NAME = "interactions.log";
+
+    public static final LongAdder DROPPED = new LongAdder();
+    public static final LongAdder WRITTEN = new LongAdder();
+
+    private static volatile InteractionLog instance;
+    // Most recently started writer, stopped or not; the next writer only opens the file once it has exited
+    private static Thread lastWriter;
+
+    private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong(); // next slot a producer will claim
+    private volatile long head; // next slot the writer will read; only the writer thread advances it
+    private volatile boolean running = true;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final boolean compress;
+    private final int maxFiles;
+    private final Gson gson = new Gson();
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+    private final Thread writer;
+    private Thread previous; // writer being replaced; exits before this one opens the file
+
+    private FileChannel channel;
+    private long fileBytes;
+    private long fileOpenedAt;
+
+    private InteractionLog(Path dir, ModConfig cfg, Thread previous) {
+        this.dir = dir;
+        this.maxBytes = (cfg.interactionLogMaxMb > 0 ? cfg.interactionLogMaxMb : 16) * 1024L * 1024L;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(cfg.interactionLogRotateHours > 0 ? cfg.interactionLogRotateHours : 24);
+        this.compress = cfg.interactionLogCompress;
+        this.maxFiles = cfg.interactionLogMaxFiles > 0 ? cfg.interactionLogMaxFiles : 10;
+        this.previous = previous;
+        this.writer = new Thread(this::run, "AI Chat interaction log");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * (Re)start the log for the given config. Called from /ai reload on the
+     * server thread, so it does not wait for the previous writer; the new
+     * writer waits for it instead, however long it takes, before opening the
+     * file. Records published meanwhile queue in the new ring.
+     */
+    public static synchronized void configure(Path dir, ModConfig cfg) {
+        stop();
+        if (cfg == null || !cfg.interactionLogEnabled)
+            return;
+        // Also covers a writer that shutdown() stopped but gave up waiting for
+        InteractionLog log = new InteractionLog(dir, cfg, lastWriter);
+        lastWriter = log.writer;
+        log.writer.start();
+        instance = log;
+    }
+
+    /**
+     * Stops the log and waits up to 5 s for it to flush; for server shutdown.
+     */
+    public static void shutdown() {
+        Thread writer = stop();
+        if (writer == null)
+            return;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized Thread stop() {
+        InteractionLog log = instance;
+        instance = null;
+        if (log == null)
+            return null;
+        log.running = false;
+        LockSupport.unpark(log.writer);
+        return log.writer;
+    }
+
+    public static boolean isEnabled() {
+        return instance != null;
+    }
+
+    /**
+     * Publish a record. Never blocks; returns false if the log is disabled or
+     * the ring is full.
+     */
+    public static boolean record(Entry e) {
+        InteractionLog log = instance;
+        return log != null && log.offer(e);
+    }
+
+    private boolean offer(Entry e) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= CAPACITY) {
+                DROPPED.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.lazySet((int) (t & (CAPACITY - 1)), e);
+        return true;
+    }
+
+    private void run() {
+        try {
+            if (previous != null) {
+                previous.join();
+                previous = null;
+            }
+            Files.createDirectories(dir);
+            openChannel();
+            while (true) {
+                boolean stopping = !running;
+                drain();
+                flush();
+                if (stopping)
+                    break;
+                if (System.currentTimeMillis() - fileOpenedAt >= maxAgeMillis && fileBytes > 0)
+                    rotate();
+                LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            }
+        } catch (Exception e) {
+            // Turn the log off visibly rather than dropping records behind an "on" status
+            FabricAiChatMod.LOGGER.error("Interaction log disabled after write failure: {}", e.toString());
+            disable(this);
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private static synchronized void disable(InteractionLog log) {
+        if (instance == log)
+            instance = null;
+    }
+
+    private void drain() throws IOException {
+        long h = head;
+        while (true) {
+            int i = (int) (h & (CAPACITY - 1));
+            Entry e = slots.get(i);
+            if (e == null)
+                break; // empty, or a producer has claimed the slot but not published yet
+            slots.lazySet(i, null);
+            h++;
+            head = h;
+            write(e);
+        }
+    }
+
+    private void write(Entry e) throws IOException {
+        byte[] line = (gson.toJson(e) + "\n").getBytes(StandardCharsets.UTF_8);
+        if (fileBytes + buf.position() + line.length > maxBytes && fileBytes + buf.position() > 0) {
+            flush();
+            rotate();
+        }
+        if (line.length > buf.remaining()) {
+            flush();
+            if (line.length > buf.capacity()) {
+                writeFully(ByteBuffer.wrap(line));
+                WRITTEN.increment();
+                return;
+            }
+        }
+        buf.put(line);
+        WRITTEN.increment();
+    }
+
+    private void flush() throws IOException {
+        if (buf.position() == 0)
+            return;
+        buf.flip();
+        writeFully(buf);
+        buf.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            fileBytes += channel.write(b);
+    }
+
+    private void openChannel() throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        fileOpenedAt = System.currentTimeMillis();
+    }
+
+    private void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+
+    private void rotate() throws IOException {
+        closeChannel();
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        Path current = dir.resolve(FILE_NAME);
+        Path rotated = dir.resolve("interactions-" + stamp + ".log");
+        // Two rotations in the same millisecond must not overwrite each other
+        for (int n = 1; Files.exists(rotated) || Files.exists(dir.resolve(rotated.getFileName() + ".gz")); n++)
+            rotated = dir.resolve("interactions-" + stamp + "-" + n + ".log");
+        Files.move(current, rotated);
+        if (compress) {
+            Path gz = dir.resolve(rotated.getFileName() + ".gz");
+            try (InputStream in = Files.newInputStream(rotated);
+                    OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+                in.transferTo(out);
+            }
+            Files.delete(rotated);
+        }
+        pruneOldFiles();
+        openChannel();
+    }
+
+    private void pruneOldFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "interactions-*")) {
+            ds.forEach(files::add);
+        }
+        // Timestamped names sort oldest first
+        Collections.sort(files);
+        for (int i = 0; i < files.size() - maxFiles; i++)
+            Files.deleteIfExists(files.get(i));
+    }
+
+    public static String summary() {
+        return "Interaction log " + (isEnabled() ? "on" : "off") + " written=" + WRITTEN.sum() + " dropped="
+                + DROPPED.sum();
+    }
+}
@@ -32,4 +32,21 @@ public class RateLimiter {
         long remain = cooldownSeconds - elapsed;
         return Math.max(0, remain);
     }
-}
\ No newline at end of file
+
+    /**
+     * Records an acquisition made elsewhere (e.g. on another server), keeping
+     * the later of the two timestamps.
+     */
+    public void seed(UUID id, long epochSecond) {
+        last.merge(id, epochSecond, Math::max);
+    }
+
+    /**
+     * Removes entries whose cooldown has already elapsed; they no longer
+     * affect tryAcquire.
+     */
+    public void purgeExpired() {
+        long now = Instant.now().getEpochSecond();
+        last.values().removeIf(prev -> now - prev >= cooldownSeconds);
+    }
+}
@@ -0,0 +1,63 @@
+package dev.charlielarson.ai_chat.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Collects streamed reply text and passes it on a line or sentence at a
+ * time, so players see a long answer while it is being generated without
+ * getting one chat message per token.
+ */
+public class SentenceChunker implements Consumer<String> {
+    // Shorter "sentences" are usually list numbers ("1.") or abbreviations
+    private static final int MIN_SENTENCE = 24;
+    // Text without sentence ends is still passed on at a word break once this long
+    private static final int MAX_CHUNK = 256;
+
+    private final Consumer<String> sink;
+    private final StringBuilder buf = new StringBuilder();
+    private boolean sent;
+
+    public SentenceChunker(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(String piece) {
+        buf.append(piece);
+        int start = 0;
+        for (int i = 0; i < buf.length(); i++) {
+            char c = buf.charAt(i);
+            boolean end = c == '\n'
+                    || (c == '.' || c == '!' || c == '?') && i + 1 < buf.length()
+                            && Character.isWhitespace(buf.charAt(i + 1)) && i + 1 - start >= MIN_SENTENCE;
+            if (end) {
+                send(buf.substring(start, i + 1));
+                start = i + 1;
+            } else if (i + 1 - start >= MAX_CHUNK) {
+                int space = buf.lastIndexOf(" ", i);
+                int cut = space > start ? space : i;
+                send(buf.substring(start, cut + 1));
+                start = cut + 1;
+            }
+        }
+        buf.delete(0, start);
+    }
+
+    /**
+     * Passes on whatever is left. Returns whether any text was passed on at
+     * all, i.e. whether the reply was streamed.
+     */
+    public boolean finish() {
+        send(buf.toString());
+        buf.setLength(0);
+        return sent;
+    }
+
+    private void send(String text) {
+        String t = text.strip();
+        if (!t.isEmpty()) {
+            sink.accept(t);
+            sent = true;
+        }
+    }
+}
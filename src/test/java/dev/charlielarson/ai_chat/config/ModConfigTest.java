@@ -0,0 +1,39 @@
+package dev.charlielarson.ai_chat.config;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModConfigTest {
+    private static ModConfig read(String json) {
+        return ModConfig.read(new Gson(), new StringReader(json));
+    }
+
+    @Test
+    void optionsMissingFromOldFilesGetDefaults() {
+        ModConfig cfg = read("{\"provider\": \"ollama\", \"cooldownSeconds\": 9}");
+        assertEquals("ollama", cfg.provider);
+        assertEquals(9, cfg.cooldownSeconds);
+        assertTrue(cfg.historyClearOnDisconnect);
+        assertEquals(30, cfg.historyIdleTtlMinutes);
+        assertEquals(List.of("@ai"), cfg.chatTriggers);
+        assertTrue(cfg.fastPathEnabled);
+    }
+
+    @Test
+    void valuesInTheFileWinOverDefaults() {
+        ModConfig cfg = read("{\"historyClearOnDisconnect\": false, \"historyIdleTtlMinutes\": 0, \"chatTriggers\": []}");
+        assertFalse(cfg.historyClearOnDisconnect);
+        assertEquals(0, cfg.historyIdleTtlMinutes);
+        assertEquals(List.of(), cfg.chatTriggers);
+    }
+
+    @Test
+    void emptyFileReadsAsNull() {
+        assertNull(read(""));
+    }
+}
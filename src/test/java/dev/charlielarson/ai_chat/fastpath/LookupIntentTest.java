@@ -0,0 +1,38 @@
+package dev.charlielarson.ai_chat.fastpath;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LookupIntentTest {
+    private static String subject(LookupIntent intent, String question) {
+        return intent.subject(LookupIntent.normalize(question));
+    }
+
+    @Test
+    void recipePhrasings() {
+        for (String q : new String[] { "bed recipe", "Bed recipe?", "what is the bed recipe",
+                "what's the recipe for a bed?", "whats the recipe for bed", "What’s the crafting recipe for a bed",
+                "recipe for the bed", "how do I craft a bed", "how to make a bed", "show me the bed crafting recipe" })
+            assertEquals("bed", subject(LookupIntent.RECIPE, q), q);
+        assertEquals("oak planks", subject(LookupIntent.RECIPE, "what is the recipe for oak planks"));
+    }
+
+    @Test
+    void otherIntents() {
+        assertEquals("diamond sword", subject(LookupIntent.ITEM_ID, "what's the item id of a diamond sword?"));
+        assertEquals("diamond sword", subject(LookupIntent.ITEM_ID, "what is the diamond sword item id"));
+        assertEquals("sharpness", subject(LookupIntent.MAX_LEVEL, "what is the max level of sharpness"));
+        assertEquals("sharpness", subject(LookupIntent.MAX_LEVEL, "sharpness maximum level"));
+        assertEquals("tp", subject(LookupIntent.COMMAND, "what's the syntax for the /tp command?"));
+        assertEquals("give", subject(LookupIntent.COMMAND, "how do I use /give"));
+    }
+
+    @Test
+    void otherQuestionsFallThrough() {
+        assertNull(subject(LookupIntent.RECIPE, "what should I build next"));
+        assertNull(subject(LookupIntent.RECIPE, "why is the bed recipe so expensive"));
+        assertNull(subject(LookupIntent.ITEM_ID, "what is the bed recipe"));
+        assertNull(subject(LookupIntent.COMMAND, "how do I use a bed"));
+    }
+}
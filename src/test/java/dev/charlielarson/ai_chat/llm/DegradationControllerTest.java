@@ -0,0 +1,66 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.DegradationController.Level;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DegradationControllerTest {
+    private final List<ModConfig> begun = new ArrayList<>();
+
+    @AfterEach
+    void endRequests() {
+        ModConfig off = ModConfig.defaultConfig();
+        for (int i = 0; i < begun.size(); i++)
+            DegradationController.end(off, 0);
+        assertEquals(Level.NORMAL, DegradationController.level());
+    }
+
+    private static ModConfig config() {
+        ModConfig cfg = ModConfig.defaultConfig();
+        cfg.provider = "openai";
+        cfg.openaiModel = "large";
+        cfg.openaiSmallModel = "";
+        cfg.allowRunCommands = false;
+        cfg.degradeEnabled = true;
+        cfg.degradeQueueStep = 1;
+        cfg.degradeRecoverSeconds = 600;
+        return cfg;
+    }
+
+    @Test
+    void levelsThatChangeNothingAreLeftOut() {
+        assertArrayEquals(new Level[] { Level.NORMAL, Level.REDUCED_TOKENS, Level.SHORT_HISTORY, Level.CACHE_ONLY },
+                DegradationController.ladder(config()));
+
+        ModConfig full = config();
+        full.openaiSmallModel = "small";
+        full.allowRunCommands = true;
+        assertArrayEquals(Level.values(), DegradationController.ladder(full));
+
+        ModConfig local = config();
+        local.provider = "local";
+        local.allowRunCommands = true;
+        local.maxHistory = 1;
+        local.maxTokens = 100;
+        local.degradedMaxTokens = 128;
+        assertArrayEquals(new Level[] { Level.NORMAL, Level.CACHE_ONLY }, DegradationController.ladder(local));
+    }
+
+    @Test
+    void stepsUpOnlyThroughLevelsThatApply() {
+        ModConfig cfg = config();
+        List<Level> seen = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DegradationController.begin(cfg);
+            begun.add(cfg);
+            seen.add(DegradationController.level());
+        }
+        assertEquals(List.of(Level.REDUCED_TOKENS, Level.SHORT_HISTORY, Level.CACHE_ONLY, Level.CACHE_ONLY), seen);
+    }
+}
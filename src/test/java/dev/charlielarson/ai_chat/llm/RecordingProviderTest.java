@@ -0,0 +1,78 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordingProviderTest {
+    @TempDir
+    Path dir;
+
+    private static List<ChatMessage> question(String q) {
+        return List.of(new ChatMessage("system", "prompt"), new ChatMessage("user", q));
+    }
+
+    private static List<CorpusRecord> awaitRecords(Path corpus, int n) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            List<CorpusRecord> records = new ArrayList<>();
+            if (Files.exists(corpus) && Files.size(corpus) > 0)
+                CorpusRecord.readAll(corpus, records);
+            if (records.size() >= n || System.currentTimeMillis() > deadline)
+                return records;
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void recordersForOneFileShareItsWriter() throws Exception {
+        LlmProvider echo = (messages, temperature, maxTokens) -> new LlmProvider.Result("ok", null);
+        Path corpus = dir.resolve("corpus.bin");
+        RecordingProvider before = new RecordingProvider(echo, corpus);
+        for (int i = 0; i < 50; i++)
+            before.chat(question("q" + i), 0.7, 100);
+        // A reload builds a new recorder while the first one's records may still be buffered
+        RecordingProvider after = new RecordingProvider(echo, dir.resolve("sub/../corpus.bin"));
+        for (int i = 50; i < 100; i++)
+            after.chat(question("q" + i), 0.7, 100);
+        List<CorpusRecord> records = awaitRecords(corpus, 100);
+        assertEquals(100, records.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals("q" + i, records.get(i).messages().get(1).content());
+    }
+
+    @Test
+    void replayParsesTheRecordedBodyAgain() throws Exception {
+        String body = "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"\",\"tool_calls\":[{"
+                + "\"function\":{\"name\":\"run_command\",\"arguments\":\"{\\\"command\\\":\\\"time set day\\\"}\"}}]}}],"
+                + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":5}}";
+        Path corpus = dir.resolve("tools.bin");
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setHeader("Content-Type", "application/json").setBody(body));
+            server.start();
+            ModConfig cfg = ModConfig.defaultConfig();
+            cfg.allowRunCommands = true;
+            cfg.recordCorpusPath = corpus.toString();
+            LlmProvider recorder = new RecordingProvider(
+                    new OpenAiProvider(server.url("/v1").toString(), "key", "m", cfg), corpus);
+            assertEquals("time set day", recorder.chat(question("make it day"), 0.7, 100).tool().command());
+        }
+        List<CorpusRecord> records = awaitRecords(corpus, 1);
+        assertEquals(CorpusRecord.OPENAI, records.get(0).rawFormat());
+        assertEquals(body, records.get(0).rawBody());
+
+        LlmProvider.Result withTools = new ReplayProvider(corpus, 0, true).chat(question("make it day"), 0.7, 100);
+        assertEquals("time set day", withTools.tool().command());
+        assertEquals(12, withTools.promptTokens());
+        assertNull(new ReplayProvider(corpus, 0, false).chat(question("make it day"), 0.7, 100).tool());
+    }
+}
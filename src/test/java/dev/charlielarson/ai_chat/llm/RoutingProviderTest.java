@@ -0,0 +1,36 @@
+package dev.charlielarson.ai_chat.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingProviderTest {
+    private static int score(String question) {
+        return RoutingProvider.score(List.of(new ChatMessage("user", question)), true);
+    }
+
+    @Test
+    void keywordsMatchWholeWordsOnly() {
+        assertEquals(3, score("kill the zombies"));
+        assertEquals(3, score("please TP me home"));
+        assertEquals(0, score("I killed a creeper"));
+        assertEquals(0, score("more skill points"));
+        assertEquals(0, score("my tpa request"));
+        assertEquals(2, score("why"));
+        assertEquals(0, score("whys"));
+    }
+
+    @Test
+    void phrasesAndInflectionsCount() {
+        assertEquals(4, score("explain the steps"));
+        assertEquals(2, score("what is the best way"));
+        assertEquals(2, score("iron farms"));
+    }
+
+    @Test
+    void toolWordsIgnoredWithoutTools() {
+        assertEquals(0, RoutingProvider.score(List.of(new ChatMessage("user", "kill the zombies")), false));
+    }
+}
@@ -0,0 +1,76 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.state.LocalSharedState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticCacheProviderTest {
+    /**
+     * Answers with a counter and embeds every text to the same vector, so any
+     * lookable question after the first one is a semantic hit.
+     */
+    private static final class CountingProvider implements LlmProvider {
+        int chats;
+
+        @Override
+        public Result chat(List<ChatMessage> messages, double temperature, int maxTokens) {
+            return new Result("answer " + ++chats, null);
+        }
+
+        @Override
+        public float[] embed(String text) {
+            return new float[] { 1, 0 };
+        }
+    }
+
+    private static List<ChatMessage> conversation(String... turns) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(new ChatMessage("system", "prompt"));
+        for (int i = 0; i < turns.length; i++)
+            messages.add(new ChatMessage(i % 2 == 0 ? "user" : "assistant", turns[i]));
+        return messages;
+    }
+
+    @Test
+    void followUpsDoNotReadAsStandalone() {
+        assertTrue(SemanticCacheProvider.readsAsStandalone("how do I craft a piston?"));
+        assertTrue(SemanticCacheProvider.readsAsStandalone("Where do blazes spawn"));
+        assertFalse(SemanticCacheProvider.readsAsStandalone("why?"));
+        assertFalse(SemanticCacheProvider.readsAsStandalone("how do I craft it?"));
+        assertFalse(SemanticCacheProvider.readsAsStandalone("What about iron golems?"));
+        assertFalse(SemanticCacheProvider.readsAsStandalone("can you explain that again"));
+        assertFalse(SemanticCacheProvider.readsAsStandalone("and where is the nearest village"));
+        // Whole words only
+        assertTrue(SemanticCacheProvider.readsAsStandalone("how do iron golems spawn"));
+        assertTrue(SemanticCacheProvider.readsAsStandalone("what do items sell for"));
+    }
+
+    @Test
+    void standaloneQuestionHitsTheCacheDespiteHistory() throws Exception {
+        CountingProvider backend = new CountingProvider();
+        SemanticCacheProvider cache = new SemanticCacheProvider(backend,
+                new LocalSharedState(ModConfig.defaultConfig(), null), 0.9, 16);
+        assertEquals("answer 1", cache.chat(conversation("how do I craft a piston?"), 0.7, 100).text());
+        List<ChatMessage> later = conversation("hi", "hello", "How do I craft a piston");
+        assertEquals("answer 1", cache.chat(later, 0.7, 100).text());
+        assertEquals("answer 1", cache.cachedAnswer(conversation("hi", "hello", "what's a piston recipe")));
+        assertEquals(1, backend.chats);
+    }
+
+    @Test
+    void followUpWithHistoryGoesToTheModel() throws Exception {
+        CountingProvider backend = new CountingProvider();
+        SemanticCacheProvider cache = new SemanticCacheProvider(backend,
+                new LocalSharedState(ModConfig.defaultConfig(), null), 0.9, 16);
+        cache.chat(conversation("how do I craft a piston?"), 0.7, 100);
+        assertEquals("answer 2", cache.chat(conversation("how do I craft a piston?", "answer 1", "why?"), 0.7, 100)
+                .text());
+        assertNull(cache.cachedAnswer(conversation("how do I craft a piston?", "answer 1", "and a sticky one?")));
+        assertEquals(2, backend.chats);
+    }
+}
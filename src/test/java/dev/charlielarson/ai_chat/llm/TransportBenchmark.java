@@ -0,0 +1,229 @@
+package dev.charlielarson.ai_chat.llm;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+import javax.net.ServerSocketFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Sends the same chat requests through {@link OpenAiProvider} to a local
+ * OpenAI-compatible stand-in under each transport setting and prints
+ * {@link TransportStats} per request: the old client-per-request behaviour,
+ * the shared pool over HTTP/1.1 and HTTP/2, gzip request bodies, and 8
+ * concurrent players over HTTP/1.1 vs h2c.
+ * <p>
+ * Run with {@code ./gradlew transportBench}. Everything is on loopback, so
+ * timings only show local costs (handshakes, compression); on a real network
+ * each avoided connection also saves one or two round trips.
+ */
+public final class TransportBenchmark {
+    private static final int REQUESTS = 200;
+    private static final int WARMUP = 20;
+    private static final int THREADS = 8;
+    private static final String[] WORDS = ("the a to of and you can it with for on your is in use craft place "
+            + "redstone piston observer hopper chest furnace iron gold diamond netherite pickaxe sword enchant "
+            + "villager trade emerald farm wheat carrot potato sugar cane water lava block torch night zombie")
+            .split(" ");
+
+    private TransportBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        HeldCertificate cert = new HeldCertificate.Builder().addSubjectAlternativeName("localhost").build();
+        trustForJvm(cert);
+        HandshakeCertificates serverCerts = new HandshakeCertificates.Builder().heldCertificate(cert).build();
+        List<ChatMessage> messages = conversation();
+        String reply = "{\"id\":\"x\",\"model\":\"bench\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+                + "\"content\":\"" + words(new Random(2), 80) + "\"},\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":900,\"completion_tokens\":80}}";
+
+        System.out.printf("%d requests of %d messages each (%d history exchanges)%n%n", REQUESTS, messages.size(),
+                (messages.size() - 2) / 2);
+        System.out.printf("%-34s %8s %8s %7s %7s %9s %9s %5s%n", "", "ms/req", "p95 ms", "opened", "reused",
+                "sent/req", "recv/req", "dns");
+
+        try (MockWebServer tls = server(reply, serverCerts, Protocol.HTTP_2, Protocol.HTTP_1_1);
+                MockWebServer h2c = server(reply, null, Protocol.H2_PRIOR_KNOWLEDGE);
+                MockWebServer h1 = server(reply, null, Protocol.HTTP_1_1)) {
+            String https = tls.url("/v1").toString();
+            run("new client per request (before)", https, messages, 1, true, c -> {
+            });
+            run("shared client, HTTP/1.1", https, messages, 1, false, c -> c.httpProtocol = "http1");
+            run("shared client, HTTP/2 (auto)", https, messages, 1, false, c -> {
+            });
+            run("shared client, HTTP/2 + gzip", https, messages, 1, false, c -> {
+                c.httpGzipRequests = true;
+                c.httpGzipMinBytes = 1024;
+            });
+            run(THREADS + " players, cleartext HTTP/1.1", h1.url("/v1").toString(), messages, THREADS, false,
+                    c -> c.httpProtocol = "http1");
+            run(THREADS + " players, h2c", h2c.url("/v1").toString(), messages, THREADS, false,
+                    c -> c.httpProtocol = "h2c");
+        }
+    }
+
+    private static void run(String name, String apiBase, List<ChatMessage> messages, int threads,
+            boolean clientPerRequest, Consumer<ModConfig> settings) throws Exception {
+        ModConfig shared = config(apiBase, settings);
+        OpenAiProvider sharedProvider = new OpenAiProvider(apiBase, "bench", "bench", shared);
+        long[] nanos = new long[REQUESTS];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < WARMUP; i++)
+                call(clientPerRequest ? null : sharedProvider, apiBase, messages, settings);
+            resetStats();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                int n = i;
+                futures.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    call(clientPerRequest ? null : sharedProvider, apiBase, messages, settings);
+                    nanos[n] = System.nanoTime() - start;
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            pool.shutdown();
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-34s %8.2f %8.2f %7d %7d %9d %9d %5d%n", name,
+                Arrays.stream(nanos).average().orElse(0) / 1e6, nanos[REQUESTS * 95 / 100] / 1e6,
+                TransportStats.CONNECTIONS_OPENED.sum(),
+                TransportStats.CONNECTIONS_ACQUIRED.sum() - TransportStats.CONNECTIONS_OPENED.sum(),
+                TransportStats.BYTES_SENT.sum() / REQUESTS, TransportStats.BYTES_RECEIVED.sum() / REQUESTS,
+                TransportStats.DNS_LOOKUPS.sum());
+    }
+
+    private static void call(OpenAiProvider provider, String apiBase, List<ChatMessage> messages,
+            Consumer<ModConfig> settings) throws Exception {
+        // A fresh config gets a fresh client and pool, which is what every request used to build
+        if (provider == null)
+            provider = new OpenAiProvider(apiBase, "bench", "bench", config(apiBase, settings));
+        provider.chat(messages, 0.7, 256);
+    }
+
+    private static ModConfig config(String apiBase, Consumer<ModConfig> settings) {
+        ModConfig cfg = ModConfig.defaultConfig();
+        cfg.openaiApiBase = apiBase;
+        settings.accept(cfg);
+        return cfg;
+    }
+
+    private static void resetStats() {
+        for (var counter : List.of(TransportStats.CALLS, TransportStats.CALLS_FAILED,
+                TransportStats.CONNECTIONS_OPENED, TransportStats.CONNECTIONS_HTTP2,
+                TransportStats.CONNECTIONS_ACQUIRED, TransportStats.BYTES_SENT, TransportStats.BYTES_RECEIVED,
+                TransportStats.DNS_LOOKUPS, TransportStats.DNS_CACHE_HITS))
+            counter.reset();
+    }
+
+    private static MockWebServer server(String reply, HandshakeCertificates certs, Protocol... protocols)
+            throws Exception {
+        MockWebServer server = new MockWebServer();
+        // Real servers answer in one write; without this, loopback HTTP/1.1 stalls on delayed ACKs
+        server.setServerSocketFactory(new ServerSocketFactory() {
+            @Override
+            public ServerSocket createServerSocket() throws IOException {
+                return new ServerSocket() {
+                    @Override
+                    public Socket accept() throws IOException {
+                        Socket s = super.accept();
+                        s.setTcpNoDelay(true);
+                        return s;
+                    }
+                };
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog, InetAddress address) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        server.setProtocols(List.of(protocols));
+        if (certs != null)
+            server.useHttps(certs.sslSocketFactory(), false);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setHeader("Content-Type", "application/json").setBody(reply);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * The providers use the platform trust store, so the stand-in's
+     * certificate is added there rather than to a custom client.
+     */
+    private static void trustForJvm(HeldCertificate cert) throws Exception {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        store.load(null, null);
+        store.setCertificateEntry("bench", cert.certificate());
+        Path file = Files.createTempFile("transport-bench", ".p12");
+        file.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            store.store(out, "bench".toCharArray());
+        }
+        System.setProperty("javax.net.ssl.trustStore", file.toString());
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        System.setProperty("javax.net.ssl.trustStorePassword", "bench");
+    }
+
+    /**
+     * System prompt, ten exchanges of history and a new question: what a
+     * regular player's request looks like with the default maxHistory.
+     */
+    private static List<ChatMessage> conversation() {
+        Random rnd = new Random(1);
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(new ChatMessage("system", ModConfig.defaultConfig().systemPrompt));
+        for (int i = 0; i < 10; i++) {
+            messages.add(new ChatMessage("user", words(rnd, 12) + "?"));
+            messages.add(new ChatMessage("assistant", words(rnd, 60 + rnd.nextInt(40))));
+        }
+        messages.add(new ChatMessage("user", words(rnd, 12) + "?"));
+        return messages;
+    }
+
+    private static String words(Random rnd, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(i == 0 ? "" : " ").append(WORDS[rnd.nextInt(WORDS.length)]);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes small GGUF v3 files for tests. Metadata values may be String,
+ * Integer, Float, Boolean, String[], int[] or float[].
+ */
+final class GgufWriter {
+    private static final int ALIGNMENT = 32;
+
+    private record Entry(String name, long[] dims, int type, byte[] data) {
+    }
+
+    private final Map<String, Object> metadata = new LinkedHashMap<>();
+    private final List<Entry> tensors = new ArrayList<>();
+
+    GgufWriter put(String key, Object value) {
+        metadata.put(key, value);
+        return this;
+    }
+
+    GgufWriter tensor(String name, int type, byte[] data, long... dims) {
+        tensors.add(new Entry(name, dims, type, data));
+        return this;
+    }
+
+    /**
+     * F32 tensor; dims[0] is the row length.
+     */
+    GgufWriter f32(String name, float[] values, long... dims) {
+        ByteBuffer b = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float v : values)
+            b.putFloat(v);
+        return tensor(name, Tensor.F32, b.array(), dims);
+    }
+
+    void write(Path path) throws IOException {
+        Out out = new Out();
+        out.i32(0x46554747);
+        out.i32(3);
+        out.i64(tensors.size());
+        out.i64(metadata.size());
+        for (Map.Entry<String, Object> e : metadata.entrySet()) {
+            out.string(e.getKey());
+            out.value(e.getValue());
+        }
+        long offset = 0;
+        List<Long> offsets = new ArrayList<>();
+        for (Entry t : tensors) {
+            out.string(t.name());
+            out.i32(t.dims().length);
+            for (long d : t.dims())
+                out.i64(d);
+            out.i32(t.type());
+            out.i64(offset);
+            offsets.add(offset);
+            offset = align(offset + t.data().length);
+        }
+        out.pad(align(out.size()));
+        long dataStart = out.size();
+        for (int i = 0; i < tensors.size(); i++) {
+            out.pad(dataStart + offsets.get(i));
+            out.write(tensors.get(i).data());
+        }
+        Files.write(path, out.toByteArray());
+    }
+
+    private static long align(long n) {
+        return (n + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static final class Out extends ByteArrayOutputStream {
+        void i32(int v) {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(v);
+            write(b.array(), 0, 4);
+        }
+
+        void i64(long v) {
+            ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(v);
+            write(b.array(), 0, 8);
+        }
+
+        void string(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            i64(b.length);
+            write(b, 0, b.length);
+        }
+
+        void pad(long to) {
+            while (size() < to)
+                write(0);
+        }
+
+        void value(Object v) {
+            if (v instanceof String s) {
+                i32(8);
+                string(s);
+            } else if (v instanceof Integer n) {
+                i32(5);
+                i32(n);
+            } else if (v instanceof Float f) {
+                i32(6);
+                i32(Float.floatToIntBits(f));
+            } else if (v instanceof Boolean b) {
+                i32(7);
+                write(b ? 1 : 0);
+            } else if (v instanceof String[] a) {
+                i32(9);
+                i32(8);
+                i64(a.length);
+                for (String s : a)
+                    string(s);
+            } else if (v instanceof int[] a) {
+                i32(9);
+                i32(5);
+                i64(a.length);
+                for (int n : a)
+                    i32(n);
+            } else if (v instanceof float[] a) {
+                i32(9);
+                i32(6);
+                i64(a.length);
+                for (float f : a)
+                    i32(Float.floatToIntBits(f));
+            } else {
+                throw new IllegalArgumentException("Unsupported metadata value " + v);
+            }
+        }
+    }
+}
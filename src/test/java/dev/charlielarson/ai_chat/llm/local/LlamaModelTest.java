@@ -0,0 +1,32 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlamaModelTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void incrementalForwardMatchesTheReference() throws IOException {
+        TinyLlama tiny = new TinyLlama(1);
+        Path file = dir.resolve("tiny.gguf");
+        tiny.write(file);
+        int[] tokens = { 1, 16, 21, 5, 9, 3, 12, 13, 8 };
+        float[][] expected = tiny.logits(tokens);
+        try (LlamaModel model = new LlamaModel(file, 2, 0)) {
+            assertEquals(TinyLlama.VOCAB, model.vocab);
+            assertEquals(TinyLlama.CONTEXT, model.contextLength);
+            LlamaModel.State s = model.new State();
+            for (int pos = 0; pos < tokens.length; pos++) {
+                model.forward(s, tokens[pos], pos, true);
+                assertArrayEquals(expected[pos], s.logits, 1e-3f, "position " + pos);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalProviderTest {
+    @TempDir
+    Path dir;
+
+    private ModConfig cfg;
+
+    private LocalProvider load() throws Exception {
+        Path file = dir.resolve("tiny.gguf");
+        new TinyLlama(2).write(file);
+        cfg = ModConfig.defaultConfig();
+        cfg.provider = "openai"; // so the model is released after the test
+        cfg.localModelPath = file.toString();
+        cfg.localThreads = 2;
+        cfg.localContextLength = 0;
+        return LocalProvider.forConfig(cfg);
+    }
+
+    @AfterEach
+    void release() {
+        if (cfg != null)
+            LocalProvider.releaseUnlessServing(cfg);
+    }
+
+    @Test
+    void sameSettingsShareTheLoadedModel() throws Exception {
+        LocalProvider local = load();
+        assertSame(local, LocalProvider.forConfig(cfg));
+    }
+
+    @Test
+    void repeatedPromptReusesTheCachedPrefix() throws Exception {
+        LocalProvider local = load();
+        List<ChatMessage> messages = List.of(new ChatMessage("system", "hello"),
+                new ChatMessage("user", "hello world"));
+        LocalProvider.Generation first = local.generate(messages, 0, 6, null);
+        assertEquals(first.promptTokens(), first.evaluatedTokens());
+        LocalProvider.Generation again = local.generate(messages, 0, 6, null);
+        // Greedy output is deterministic, and only the last prompt token is evaluated again
+        assertEquals(first.text(), again.text());
+        assertEquals(1, again.evaluatedTokens());
+    }
+
+    @Test
+    void followUpOnlyEvaluatesTheNewTurn() throws Exception {
+        LocalProvider local = load();
+        List<ChatMessage> messages = new ArrayList<>(List.of(new ChatMessage("user", "hello")));
+        LocalProvider.Generation first = local.generate(messages, 0, 4, null);
+        messages.add(new ChatMessage("assistant", "world"));
+        messages.add(new ChatMessage("user", "hello world"));
+        LocalProvider.Generation next = local.generate(messages, 0, 4, null);
+        assertTrue(next.evaluatedTokens() < next.promptTokens() - first.promptTokens() + 2,
+                "evaluated " + next.evaluatedTokens() + " of " + next.promptTokens());
+    }
+
+    @Test
+    void streamedPiecesAddUpToTheReply() throws Exception {
+        LocalProvider local = load();
+        List<ChatMessage> messages = List.of(new ChatMessage("user", "hello world"));
+        StringBuilder streamed = new StringBuilder();
+        List<String> pieces = new ArrayList<>();
+        LocalProvider.Generation g = local.generate(messages, 0, 8, piece -> {
+            pieces.add(piece);
+            streamed.append(piece);
+        });
+        assertEquals(g.text(), streamed.toString());
+        assertEquals(g.generatedTokens(), pieces.size());
+    }
+
+    @Test
+    void piecesNeverEndInsideACharacter() {
+        byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+        assertTrue(LocalProvider.completeUtf8("a".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(LocalProvider.completeUtf8(euro));
+        assertFalse(LocalProvider.completeUtf8(Arrays.copyOf(euro, 1)));
+        assertFalse(LocalProvider.completeUtf8(Arrays.copyOf(euro, 2)));
+        assertTrue(LocalProvider.completeUtf8("a€".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(LocalProvider.completeUtf8(Arrays.copyOf("a€".getBytes(StandardCharsets.UTF_8), 3)));
+    }
+
+    @Test
+    void missingFileFails() {
+        ModConfig missing = ModConfig.defaultConfig();
+        missing.localModelPath = dir.resolve("missing.gguf").toString();
+        assertThrows(IOException.class, () -> LocalProvider.forConfig(missing));
+    }
+}
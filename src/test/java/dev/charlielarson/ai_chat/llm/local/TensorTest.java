@@ -0,0 +1,120 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks each quantized format against values packed here straight from the
+ * ggml block layouts, through both {@link Tensor#row} and {@link Tensor#dot}.
+ */
+class TensorTest {
+    private final Random rnd = new Random(7);
+
+    @Test
+    void q8_0() throws IOException {
+        int cols = 64;
+        int rows = 3;
+        ByteBuffer buf = buffer(rows * cols / 32 * 34);
+        float[] expected = new float[rows * cols];
+        for (int b = 0; b < rows * cols / 32; b++) {
+            float d = scale();
+            buf.putShort(Float.floatToFloat16(d));
+            for (int j = 0; j < 32; j++) {
+                int q = rnd.nextInt(256) - 128;
+                buf.put((byte) q);
+                expected[b * 32 + j] = d * q;
+            }
+        }
+        check(new Tensor("q8", Tensor.Q8_0, new long[] { cols, rows }, buf.flip()), expected);
+    }
+
+    @Test
+    void q4_0() throws IOException {
+        int cols = 64;
+        int rows = 3;
+        ByteBuffer buf = buffer(rows * cols / 32 * 18);
+        float[] expected = new float[rows * cols];
+        for (int b = 0; b < rows * cols / 32; b++) {
+            float d = scale();
+            buf.putShort(Float.floatToFloat16(d));
+            for (int j = 0; j < 16; j++) {
+                int lo = rnd.nextInt(16);
+                int hi = rnd.nextInt(16);
+                buf.put((byte) (lo | hi << 4));
+                expected[b * 32 + j] = d * (lo - 8);
+                expected[b * 32 + j + 16] = d * (hi - 8);
+            }
+        }
+        check(new Tensor("q4", Tensor.Q4_0, new long[] { cols, rows }, buf.flip()), expected);
+    }
+
+    @Test
+    void q6_K() throws IOException {
+        int cols = 512;
+        int rows = 2;
+        int blocks = rows * cols / 256;
+        ByteBuffer buf = buffer(blocks * 210);
+        float[] expected = new float[rows * cols];
+        for (int b = 0; b < blocks; b++) {
+            byte[] ql = new byte[128];
+            byte[] qh = new byte[64];
+            byte[] scales = new byte[16];
+            for (int i = 0; i < 16; i++)
+                scales[i] = (byte) (rnd.nextInt(256) - 128);
+            float d = scale();
+            for (int i = 0; i < 256; i++) {
+                int q = rnd.nextInt(64); // stored 6-bit value; the weight is q - 32
+                int half = i / 128;
+                int quarter = i % 128 / 32;
+                int l = i % 32;
+                int lo = half * 64 + l + (quarter % 2) * 32;
+                ql[lo] |= (byte) (quarter < 2 ? q & 0x0F : (q & 0x0F) << 4);
+                qh[half * 32 + l] |= (byte) ((q >> 4) << (2 * quarter));
+                int sc = scales[half * 8 + l / 16 + 2 * quarter];
+                expected[b * 256 + i] = d * sc * (q - 32);
+            }
+            buf.put(ql).put(qh).put(scales).putShort(Float.floatToFloat16(d));
+        }
+        check(new Tensor("q6k", Tensor.Q6_K, new long[] { cols, rows }, buf.flip()), expected);
+    }
+
+    @Test
+    void unsupportedTypesAreRejected() {
+        // Q4_K
+        assertThrows(IOException.class, () -> Tensor.byteSize(12, 256));
+    }
+
+    private void check(Tensor t, float[] expected) {
+        float[] x = new float[t.cols];
+        for (int i = 0; i < x.length; i++)
+            x[i] = rnd.nextFloat() * 2 - 1;
+        float[] row = new float[t.cols];
+        for (int r = 0; r < t.rows; r++) {
+            t.row(r, row);
+            double dot = 0;
+            for (int i = 0; i < t.cols; i++) {
+                float want = expected[r * t.cols + i];
+                assertEquals(want, row[i], Math.abs(want) * 1e-6f);
+                dot += (double) want * x[i];
+            }
+            assertEquals(dot, t.dot(r, x), Math.abs(dot) * 1e-4 + 1e-3);
+        }
+    }
+
+    /**
+     * A scale that is exact in f16, so expected values need no rounding.
+     */
+    private float scale() {
+        return Float.float16ToFloat(Float.floatToFloat16(0.001f + rnd.nextFloat() * 0.05f));
+    }
+
+    private static ByteBuffer buffer(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,200 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A two-layer llama with random F32 weights and the {@link TokenizerTest}
+ * SentencePiece vocabulary, plus a straightforward full-sequence reference
+ * forward pass (no KV cache) to check {@link LlamaModel} against.
+ */
+final class TinyLlama {
+    static final int DIM = 32;
+    static final int HEADS = 4;
+    static final int KV_HEADS = 2;
+    static final int HEAD_DIM = DIM / HEADS;
+    static final int KV_DIM = KV_HEADS * HEAD_DIM;
+    static final int HIDDEN = 48;
+    static final int LAYERS = 2;
+    static final int VOCAB = TokenizerTest.SPM_TOKENS.length;
+    static final int CONTEXT = 64;
+    static final float EPS = 1e-5f;
+    static final float ROPE_BASE = 10000f;
+
+    final float[] embed;
+    final float[] output;
+    final float[] outputNorm;
+    final float[][] attnNorm = new float[LAYERS][];
+    final float[][] wq = new float[LAYERS][];
+    final float[][] wk = new float[LAYERS][];
+    final float[][] wv = new float[LAYERS][];
+    final float[][] wo = new float[LAYERS][];
+    final float[][] ffnNorm = new float[LAYERS][];
+    final float[][] gate = new float[LAYERS][];
+    final float[][] up = new float[LAYERS][];
+    final float[][] down = new float[LAYERS][];
+
+    TinyLlama(long seed) {
+        Random rnd = new Random(seed);
+        embed = random(rnd, VOCAB * DIM, 1f);
+        output = random(rnd, VOCAB * DIM, 0.5f);
+        outputNorm = norm(rnd);
+        for (int l = 0; l < LAYERS; l++) {
+            attnNorm[l] = norm(rnd);
+            wq[l] = random(rnd, DIM * DIM, 0.3f);
+            wk[l] = random(rnd, KV_DIM * DIM, 0.3f);
+            wv[l] = random(rnd, KV_DIM * DIM, 0.3f);
+            wo[l] = random(rnd, DIM * DIM, 0.3f);
+            ffnNorm[l] = norm(rnd);
+            gate[l] = random(rnd, HIDDEN * DIM, 0.3f);
+            up[l] = random(rnd, HIDDEN * DIM, 0.3f);
+            down[l] = random(rnd, DIM * HIDDEN, 0.3f);
+        }
+    }
+
+    void write(Path file) throws IOException {
+        GgufWriter w = TokenizerTest.spmVocab()
+                .put("general.architecture", "llama")
+                .put("general.name", "tiny")
+                .put("llama.embedding_length", DIM)
+                .put("llama.block_count", LAYERS)
+                .put("llama.attention.head_count", HEADS)
+                .put("llama.attention.head_count_kv", KV_HEADS)
+                .put("llama.feed_forward_length", HIDDEN)
+                .put("llama.context_length", CONTEXT)
+                .put("llama.attention.layer_norm_rms_epsilon", EPS)
+                .put("llama.rope.freq_base", ROPE_BASE)
+                .f32("token_embd.weight", embed, DIM, VOCAB)
+                .f32("output.weight", output, DIM, VOCAB)
+                .f32("output_norm.weight", outputNorm, DIM);
+        for (int l = 0; l < LAYERS; l++) {
+            String p = "blk." + l + ".";
+            w.f32(p + "attn_norm.weight", attnNorm[l], DIM)
+                    .f32(p + "attn_q.weight", wq[l], DIM, DIM)
+                    .f32(p + "attn_k.weight", wk[l], DIM, KV_DIM)
+                    .f32(p + "attn_v.weight", wv[l], DIM, KV_DIM)
+                    .f32(p + "attn_output.weight", wo[l], DIM, DIM)
+                    .f32(p + "ffn_norm.weight", ffnNorm[l], DIM)
+                    .f32(p + "ffn_gate.weight", gate[l], DIM, HIDDEN)
+                    .f32(p + "ffn_up.weight", up[l], DIM, HIDDEN)
+                    .f32(p + "ffn_down.weight", down[l], HIDDEN, DIM);
+        }
+        w.write(file);
+    }
+
+    /**
+     * Logits after each token of the sequence, computed position by position
+     * over the whole prefix.
+     */
+    float[][] logits(int[] tokens) {
+        int n = tokens.length;
+        float[][] x = new float[n][];
+        for (int t = 0; t < n; t++)
+            x[t] = Arrays.copyOfRange(embed, tokens[t] * DIM, (tokens[t] + 1) * DIM);
+        for (int l = 0; l < LAYERS; l++) {
+            float[][] q = new float[n][];
+            float[][] k = new float[n][];
+            float[][] v = new float[n][];
+            for (int t = 0; t < n; t++) {
+                float[] xb = rmsnorm(x[t], attnNorm[l]);
+                q[t] = rope(matvec(wq[l], xb, DIM), t);
+                k[t] = rope(matvec(wk[l], xb, KV_DIM), t);
+                v[t] = matvec(wv[l], xb, KV_DIM);
+            }
+            for (int t = 0; t < n; t++) {
+                float[] att = new float[DIM];
+                for (int h = 0; h < HEADS; h++) {
+                    int kv = h / (HEADS / KV_HEADS) * HEAD_DIM;
+                    double[] w = new double[t + 1];
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int s = 0; s <= t; s++) {
+                        double score = 0;
+                        for (int i = 0; i < HEAD_DIM; i++)
+                            score += q[t][h * HEAD_DIM + i] * k[s][kv + i];
+                        w[s] = score / Math.sqrt(HEAD_DIM);
+                        max = Math.max(max, w[s]);
+                    }
+                    double sum = 0;
+                    for (int s = 0; s <= t; s++)
+                        sum += w[s] = Math.exp(w[s] - max);
+                    for (int s = 0; s <= t; s++)
+                        for (int i = 0; i < HEAD_DIM; i++)
+                            att[h * HEAD_DIM + i] += (float) (w[s] / sum) * v[s][kv + i];
+                }
+                add(x[t], matvec(wo[l], att, DIM));
+            }
+            for (int t = 0; t < n; t++) {
+                float[] xb = rmsnorm(x[t], ffnNorm[l]);
+                float[] g = matvec(gate[l], xb, HIDDEN);
+                float[] u = matvec(up[l], xb, HIDDEN);
+                float[] hb = new float[HIDDEN];
+                for (int i = 0; i < HIDDEN; i++)
+                    hb[i] = (float) (g[i] / (1 + Math.exp(-g[i]))) * u[i];
+                add(x[t], matvec(down[l], hb, DIM));
+            }
+        }
+        float[][] logits = new float[n][];
+        for (int t = 0; t < n; t++)
+            logits[t] = matvec(output, rmsnorm(x[t], outputNorm), VOCAB);
+        return logits;
+    }
+
+    private static float[] rmsnorm(float[] x, float[] w) {
+        double ss = 0;
+        for (float f : x)
+            ss += f * f;
+        float inv = (float) (1 / Math.sqrt(ss / x.length + EPS));
+        float[] out = new float[x.length];
+        for (int i = 0; i < x.length; i++)
+            out[i] = x[i] * inv * w[i];
+        return out;
+    }
+
+    private static float[] matvec(float[] w, float[] x, int rows) {
+        float[] out = new float[rows];
+        for (int r = 0; r < rows; r++) {
+            double s = 0;
+            for (int c = 0; c < x.length; c++)
+                s += w[r * x.length + c] * x[c];
+            out[r] = (float) s;
+        }
+        return out;
+    }
+
+    /**
+     * Llama layout: each head rotates adjacent pairs (2i, 2i + 1).
+     */
+    private static float[] rope(float[] vec, int pos) {
+        for (int o = 0; o < vec.length; o += HEAD_DIM) {
+            for (int i = 0; i < HEAD_DIM / 2; i++) {
+                double angle = pos / Math.pow(ROPE_BASE, 2.0 * i / HEAD_DIM);
+                float a = vec[o + 2 * i];
+                float b = vec[o + 2 * i + 1];
+                vec[o + 2 * i] = (float) (a * Math.cos(angle) - b * Math.sin(angle));
+                vec[o + 2 * i + 1] = (float) (a * Math.sin(angle) + b * Math.cos(angle));
+            }
+        }
+        return vec;
+    }
+
+    private static void add(float[] x, float[] y) {
+        for (int i = 0; i < x.length; i++)
+            x[i] += y[i];
+    }
+
+    private static float[] norm(Random rnd) {
+        float[] w = new float[DIM];
+        for (int i = 0; i < DIM; i++)
+            w[i] = 0.8f + rnd.nextFloat() * 0.4f;
+        return w;
+    }
+
+    private static float[] random(Random rnd, int n, float scale) {
+        float[] w = new float[n];
+        for (int i = 0; i < n; i++)
+            w[i] = (float) rnd.nextGaussian() * scale;
+        return w;
+    }
+}
@@ -0,0 +1,123 @@
+package dev.charlielarson.ai_chat.llm.local;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenizerTest {
+    // SentencePiece vocabulary: merges are picked by score, so the chains below build whole words
+    static final String[] SPM_TOKENS = { "<unk>", "<s>", "</s>", "<0x21>", "▁", "h", "e", "l", "o", "w", "r", "d",
+            "▁h", "ll", "▁he", "▁hell", "▁hello", "▁w", "▁wo", "▁wor", "▁worl", "▁world" };
+
+    @TempDir
+    Path dir;
+
+    static GgufWriter spmVocab() {
+        float[] scores = new float[SPM_TOKENS.length];
+        int[] types = new int[SPM_TOKENS.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = -i;
+            types[i] = 1;
+        }
+        types[0] = 2;
+        types[1] = 3;
+        types[2] = 3;
+        types[3] = 6;
+        return new GgufWriter()
+                .put("tokenizer.ggml.model", "llama")
+                .put("tokenizer.ggml.tokens", SPM_TOKENS)
+                .put("tokenizer.ggml.scores", scores)
+                .put("tokenizer.ggml.token_type", types)
+                .put("tokenizer.ggml.bos_token_id", 1)
+                .put("tokenizer.ggml.eos_token_id", 2);
+    }
+
+    private Tokenizer load(GgufWriter w) throws IOException {
+        Path file = dir.resolve("vocab.gguf");
+        w.write(file);
+        try (GGUF gguf = new GGUF(file)) {
+            return new Tokenizer(gguf);
+        }
+    }
+
+    @Test
+    void sentencePieceMergesWholeWords() throws IOException {
+        Tokenizer tok = load(spmVocab());
+        assertEquals(List.of("▁hello", "▁world"), pieces(tok, SPM_TOKENS, new ArrayList<>(), "hello world"));
+        assertEquals(1, tok.bos);
+        assertEquals(2, tok.eos);
+        assertTrue(tok.addBos);
+    }
+
+    @Test
+    void sentencePieceAddsTheDummyPrefixOnlyAtTheStart() throws IOException {
+        Tokenizer tok = load(spmVocab());
+        List<Integer> out = new ArrayList<>(List.of(tok.bos));
+        assertEquals(List.of("▁hello"), pieces(tok, SPM_TOKENS, out, "hello"));
+        // Continuing the same text: no second prefix, so " world" is one "▁world" and "world" has none
+        assertEquals(List.of("▁world"), pieces(tok, SPM_TOKENS, out, " world"));
+        assertEquals(List.of("w", "o", "r", "l", "d"), pieces(tok, SPM_TOKENS, out, "world"));
+    }
+
+    @Test
+    void sentencePieceFallsBackToBytes() throws IOException {
+        Tokenizer tok = load(spmVocab());
+        List<Integer> out = new ArrayList<>();
+        tok.encode("hello!", out);
+        assertEquals(List.of(tok.special("▁hello"), tok.special("<0x21>")), out);
+        assertEquals(" hello!", decode(tok, out));
+    }
+
+    @Test
+    void controlTokensDecodeToNothing() throws IOException {
+        Tokenizer tok = load(spmVocab());
+        assertEquals("", decode(tok, List.of(tok.bos, tok.eos)));
+    }
+
+    @Test
+    void byteLevelAppliesMergesByRank() throws IOException {
+        String[] vocab = { "h", "e", "l", "o", "Ġ", "w", "r", "d", "he", "ll", "hell", "hello", "Ġw", "Ġworld",
+                "<|endoftext|>" };
+        String[] merges = { "h e", "l l", "he ll", "hell o", "Ġ w" };
+        Tokenizer tok = load(new GgufWriter()
+                .put("tokenizer.ggml.model", "gpt2")
+                .put("tokenizer.ggml.tokens", vocab)
+                .put("tokenizer.ggml.merges", merges)
+                .put("tokenizer.ggml.eos_token_id", 14));
+        List<Integer> out = new ArrayList<>();
+        // "Ġworld" is looked up whole; "hellohello" is not in the vocabulary and is built from merges
+        assertEquals(List.of("hello", "Ġworld"), pieces(tok, vocab, out, "hello world"));
+        assertEquals(List.of("hello", "hello"), pieces(tok, vocab, out, "hellohello"));
+        assertEquals("hello worldhellohello", decode(tok, out));
+        assertFalse(tok.addBos);
+        assertEquals(14, tok.special("<|endoftext|>"));
+        assertEquals(-1, tok.special("<|im_start|>"));
+    }
+
+    /**
+     * Encodes text onto out and returns the vocabulary entries it added.
+     */
+    private static List<String> pieces(Tokenizer tok, String[] vocab, List<Integer> out, String text) {
+        int from = out.size();
+        tok.encode(text, out);
+        List<String> added = new ArrayList<>();
+        for (int id : out.subList(from, out.size()))
+            added.add(vocab[id]);
+        return added;
+    }
+
+    private static String decode(Tokenizer tok, List<Integer> ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int id : ids)
+            tok.decode(id, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
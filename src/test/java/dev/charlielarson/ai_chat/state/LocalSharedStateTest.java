@@ -0,0 +1,26 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalSharedStateTest extends SharedStateContract {
+    @Override
+    protected SharedState newState(ModConfig cfg) {
+        return new LocalSharedState(cfg, null);
+    }
+
+    @Test
+    void reloadKeepsHistoryAndOnlinePlayers() {
+        LocalSharedState before = new LocalSharedState(config(), null);
+        UUID player = UUID.randomUUID();
+        before.onJoin(player);
+        before.appendExchange(player, "q", "a");
+        LocalSharedState after = new LocalSharedState(config(), before);
+        assertEquals(2, history(after, player).size());
+        assertTrue(after.online().contains(player));
+    }
+}
@@ -0,0 +1,167 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the contract against {@link RedisSharedState} backed by
+ * {@link RespStandIn}, plus the cross-server behaviour: each state created
+ * here has its own near cache, like a separate server.
+ */
+class RedisSharedStateTest extends SharedStateContract {
+    private RespStandIn store;
+
+    @BeforeEach
+    void startStore() throws IOException {
+        store = new RespStandIn();
+    }
+
+    @AfterEach
+    void stopStore() throws IOException {
+        // Subclass callbacks run first; close the states while the store is still up
+        closeStates();
+        store.close();
+    }
+
+    @Override
+    protected SharedState newState(ModConfig cfg) {
+        cfg.sharedStateBackend = "redis";
+        cfg.redisHost = "127.0.0.1";
+        cfg.redisPort = store.port();
+        cfg.sharedStateFlushMillis = 10;
+        return new RedisSharedState(cfg, new LocalSharedState(cfg, null));
+    }
+
+    @Test
+    void historyFollowsThePlayerToAnotherServer() {
+        SharedState a = create(config());
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        a.appendExchange(player, "q", "a");
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) != null);
+        b.onJoin(player);
+        awaitTrue(() -> history(b, player).size() == 2);
+        assertEquals(new ChatMessage("user", "q"), history(b, player).get(0));
+    }
+
+    @Test
+    void joinReplacesAStaleLocalCopy() {
+        SharedState a = create(config());
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        // Talked on b, left without b clearing its copy, then started over on a
+        b.appendExchange(player, "stale", "stale answer");
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) != null);
+        a.clearHistory(player);
+        a.appendExchange(player, "new", "new answer");
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) instanceof List<?> l && !l.isEmpty()
+                && l.get(0).equals("unew"));
+        b.onJoin(player);
+        awaitTrue(() -> history(b, player).equals(List.of(new ChatMessage("user", "new"),
+                new ChatMessage("assistant", "new answer"))));
+    }
+
+    @Test
+    void joinKeepsExchangesAppendedWhileFetching() throws InterruptedException {
+        SharedState a = create(config());
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        a.appendExchange(player, "earlier", "earlier answer");
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) != null);
+        store.pauseNext("LRANGE");
+        b.onJoin(player);
+        assertTrue(store.awaitPaused());
+        b.appendExchange(player, "quick", "quick answer");
+        store.resume();
+        List<ChatMessage> expected = List.of(new ChatMessage("user", "earlier"),
+                new ChatMessage("assistant", "earlier answer"), new ChatMessage("user", "quick"),
+                new ChatMessage("assistant", "quick answer"));
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) instanceof List<?> l && l.size() == 4);
+        assertEquals(expected, history(b, player));
+    }
+
+    @Test
+    void mergeSkipsExchangesTheFetchAlreadyHas() {
+        ChatMessage q1 = new ChatMessage("user", "q1");
+        ChatMessage a1 = new ChatMessage("assistant", "a1");
+        ChatMessage q2 = new ChatMessage("user", "q2");
+        ChatMessage a2 = new ChatMessage("assistant", "a2");
+        assertEquals(List.of(q1, a1, q2, a2), RedisSharedState.merge(List.of(q1, a1, q2, a2), List.of(q2, a2)));
+        assertEquals(List.of(q1, a1, q2, a2), RedisSharedState.merge(List.of(q1, a1), List.of(q2, a2)));
+        assertEquals(List.of(q2, a2), RedisSharedState.merge(List.of(), List.of(q2, a2)));
+    }
+
+    @Test
+    void malformedCooldownIsIgnored() throws InterruptedException {
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        store.put("ai-chat:cd:" + player, "not a number");
+        b.onJoin(player);
+        // Long enough for the join fetch and one periodic cooldown sync
+        Thread.sleep(1500);
+        assertFalse(b.summary().contains("unreachable"), b.summary());
+        assertTrue(b.tryAcquire(player));
+    }
+
+    @Test
+    void closeWaitsForTheCommandInFlightAndStillFlushes() throws InterruptedException {
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        store.pauseNext("LRANGE");
+        b.onJoin(player);
+        assertTrue(store.awaitPaused());
+        b.appendExchange(player, "q", "a");
+        // Times out without touching the connection the I/O thread is blocked on
+        b.close();
+        store.resume();
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) instanceof List<?> l
+                && l.equals(List.of("uq", "aa")));
+    }
+
+    @Test
+    void cooldownStartedOnAnotherServerApplies() {
+        SharedState a = create(config());
+        SharedState b = create(config());
+        UUID player = UUID.randomUUID();
+        b.onJoin(player);
+        awaitTrue(() -> b.remaining(player) == 0);
+        assertTrue(a.tryAcquire(player));
+        // Picked up by the periodic sync, not by a join
+        awaitTrue(() -> b.remaining(player) > 0);
+        assertFalse(b.tryAcquire(player));
+    }
+
+    @Test
+    void writesAreRetriedAfterAnOutage() {
+        SharedState a = create(config());
+        UUID player = UUID.randomUUID();
+        store.setDown(true);
+        a.appendExchange(player, "q", "a");
+        awaitTrue(() -> RedisSharedState.ERRORS.sum() > 0 && a.summary().contains("unreachable"));
+        store.setDown(false);
+        awaitTrue(() -> store.get("ai-chat:hist:" + player) instanceof List<?> l && l.size() == 2);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("condition not met within 10 s");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
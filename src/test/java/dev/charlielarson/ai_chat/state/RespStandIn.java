@@ -0,0 +1,202 @@
+package dev.charlielarson.ai_chat.state;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process server speaking just enough RESP2 for {@link RedisSharedState}
+ * (strings and lists, no expiry). While {@link #setDown} is on, every
+ * connection is dropped as soon as a command arrives; {@link #pauseNext}
+ * holds one command until {@link #resume}, to test what happens while it is
+ * in flight.
+ */
+final class RespStandIn implements Closeable {
+    private final ServerSocket server;
+    private final Map<String, Object> data = new HashMap<>(); // guarded by itself
+    private volatile boolean down;
+    private volatile String pauseOn;
+    private volatile CountDownLatch paused = new CountDownLatch(0);
+    private volatile CountDownLatch resumed = new CountDownLatch(0);
+
+    RespStandIn() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(this::accept, "RESP stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    void setDown(boolean down) {
+        this.down = down;
+    }
+
+    void put(String key, String value) {
+        synchronized (data) {
+            data.put(key, value);
+        }
+    }
+
+    /**
+     * Holds the next command with this name before executing it.
+     */
+    void pauseNext(String command) {
+        paused = new CountDownLatch(1);
+        resumed = new CountDownLatch(1);
+        pauseOn = command;
+    }
+
+    boolean awaitPaused() throws InterruptedException {
+        return paused.await(10, TimeUnit.SECONDS);
+    }
+
+    void resume() {
+        resumed.countDown();
+    }
+
+    Object get(String key) {
+        synchronized (data) {
+            return data.get(key);
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket s = server.accept();
+                Thread t = new Thread(() -> serve(s), "RESP stand-in connection");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try (s) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            while (true) {
+                List<String> cmd = readCommand(in);
+                if (cmd == null || down)
+                    return;
+                if (cmd.get(0).equalsIgnoreCase(pauseOn)) {
+                    pauseOn = null;
+                    paused.countDown();
+                    resumed.await();
+                }
+                writeReply(out, execute(cmd));
+                if (in.available() == 0)
+                    out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object execute(List<String> cmd) {
+        String key = cmd.size() > 1 ? cmd.get(1) : null;
+        synchronized (data) {
+            switch (cmd.get(0).toUpperCase()) {
+                case "AUTH", "SELECT", "EXPIRE":
+                    return "OK";
+                case "GET":
+                    return data.get(key) instanceof String v ? v : null;
+                case "MGET": {
+                    List<Object> values = new ArrayList<>();
+                    for (String k : cmd.subList(1, cmd.size()))
+                        values.add(data.get(k) instanceof String v ? v : null);
+                    return values;
+                }
+                case "SET":
+                    data.put(key, cmd.get(2));
+                    return "OK";
+                case "DEL":
+                    return data.remove(key) != null ? 1L : 0L;
+                case "RPUSH": {
+                    List<String> list = (List<String>) data.computeIfAbsent(key, k -> new ArrayList<String>());
+                    list.addAll(cmd.subList(2, cmd.size()));
+                    return (long) list.size();
+                }
+                case "LRANGE":
+                case "LTRIM": {
+                    List<String> list = data.get(key) instanceof List<?> l ? (List<String>) l : List.of();
+                    int from = index(Integer.parseInt(cmd.get(2)), list.size());
+                    int to = Math.min(list.size(), index(Integer.parseInt(cmd.get(3)), list.size()) + 1);
+                    List<String> range = from < to ? new ArrayList<>(list.subList(from, to)) : new ArrayList<>();
+                    if ("LRANGE".equalsIgnoreCase(cmd.get(0)))
+                        return range;
+                    data.put(key, range);
+                    return "OK";
+                }
+                default:
+                    return new RespClient.Error("ERR unknown command " + cmd.get(0));
+            }
+        }
+    }
+
+    private static int index(int i, int size) {
+        return Math.max(0, i < 0 ? size + i : i);
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0)
+            return null;
+        if (type != '*')
+            throw new IOException("Expected array, got " + (char) type);
+        int n = Integer.parseInt(readLine(in));
+        List<String> args = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            in.read(); // '$'
+            int len = Integer.parseInt(readLine(in));
+            args.add(new String(in.readNBytes(len), StandardCharsets.UTF_8));
+            readLine(in);
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\r')
+            sb.append((char) c);
+        in.read(); // '\n'
+        return sb.toString();
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof RespClient.Error err) {
+            out.write(("-" + err.message() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long n) {
+            out.write((":" + n + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof List<?> items) {
+            out.write(("*" + items.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object item : items)
+                writeReply(out, item);
+        } else {
+            byte[] b = reply.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + b.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(b);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
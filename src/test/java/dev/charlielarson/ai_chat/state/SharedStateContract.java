@@ -0,0 +1,123 @@
+package dev.charlielarson.ai_chat.state;
+
+import dev.charlielarson.ai_chat.config.ModConfig;
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link SharedState} backend must have, as seen by a single
+ * server. Backends extend this and supply {@link #newState}.
+ */
+abstract class SharedStateContract {
+    private final List<SharedState> created = new ArrayList<>();
+
+    protected abstract SharedState newState(ModConfig cfg);
+
+    protected final SharedState create(ModConfig cfg) {
+        SharedState state = newState(cfg);
+        created.add(state);
+        return state;
+    }
+
+    protected static ModConfig config() {
+        ModConfig cfg = ModConfig.defaultConfig();
+        cfg.cooldownSeconds = 5;
+        cfg.maxHistory = 3;
+        cfg.historyClearOnDisconnect = true;
+        return cfg;
+    }
+
+    protected static List<ChatMessage> history(SharedState state, UUID player) {
+        List<ChatMessage> out = new ArrayList<>();
+        state.loadHistory(player, out);
+        return out;
+    }
+
+    @AfterEach
+    void closeStates() {
+        for (SharedState state : created)
+            state.close();
+        created.clear();
+    }
+
+    @Test
+    void historyIsReturnedInOrder() {
+        SharedState state = create(config());
+        UUID player = UUID.randomUUID();
+        state.appendExchange(player, "q1", "a1");
+        state.appendExchange(player, "q2", "a2");
+        assertEquals(List.of(new ChatMessage("user", "q1"), new ChatMessage("assistant", "a1"),
+                new ChatMessage("user", "q2"), new ChatMessage("assistant", "a2")), history(state, player));
+    }
+
+    @Test
+    void historyKeepsOnlyTheLatestExchanges() {
+        SharedState state = create(config());
+        UUID player = UUID.randomUUID();
+        for (int i = 0; i < 5; i++)
+            state.appendExchange(player, "q" + i, "a" + i);
+        List<ChatMessage> h = history(state, player);
+        assertEquals(6, h.size());
+        assertEquals("q2", h.get(0).content());
+        assertEquals("a4", h.get(5).content());
+    }
+
+    @Test
+    void historyIsOffWhenMaxHistoryIsZero() {
+        ModConfig cfg = config();
+        cfg.maxHistory = 0;
+        SharedState state = create(cfg);
+        UUID player = UUID.randomUUID();
+        state.appendExchange(player, "q", "a");
+        assertTrue(history(state, player).isEmpty());
+    }
+
+    @Test
+    void clearHistoryForgetsTheConversation() {
+        SharedState state = create(config());
+        UUID player = UUID.randomUUID();
+        state.appendExchange(player, "q", "a");
+        state.clearHistory(player);
+        assertTrue(history(state, player).isEmpty());
+    }
+
+    @Test
+    void storedResponsesAreReturned() {
+        SharedState state = create(config());
+        assertNull(state.getResponse("k"));
+        state.putResponse("k", "answer");
+        assertEquals("answer", state.getResponse("k"));
+    }
+
+    @Test
+    void cooldownBlocksRepeatRequests() {
+        SharedState state = create(config());
+        UUID player = UUID.randomUUID();
+        assertTrue(state.tryAcquire(player));
+        assertFalse(state.tryAcquire(player));
+        long remaining = state.remaining(player);
+        assertTrue(remaining > 0 && remaining <= 5, "remaining=" + remaining);
+        assertTrue(state.tryAcquire(UUID.randomUUID()), "cooldowns are per player");
+    }
+
+    @Test
+    void leavingClearsHistoryButKeepsTheCooldown() {
+        SharedState state = create(config());
+        UUID player = UUID.randomUUID();
+        state.onJoin(player);
+        state.appendExchange(player, "q", "a");
+        assertTrue(state.tryAcquire(player));
+        state.onLeave(player);
+        assertTrue(history(state, player).isEmpty());
+        assertFalse(state.tryAcquire(player), "relogging must not reset the cooldown");
+        state.evictIdle();
+        assertFalse(state.tryAcquire(player), "unexpired cooldowns survive housekeeping");
+    }
+}
@@ -0,0 +1,120 @@
+package dev.charlielarson.ai_chat.util;
+
+import dev.charlielarson.ai_chat.llm.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Heap used by the history of 1,000 players with a full 10-exchange history,
+ * stored the old way (a deque of ChatMessage per player) and as
+ * {@link ConversationHistory} rings with and without cold compression.
+ * <p>
+ * Run with {@code ./gradlew historyFootprint}. Content is generated from a
+ * word list, so it deflates about as well as real chat rather than as well
+ * as repeated text.
+ */
+public final class ConversationHistoryFootprint {
+    private static final int PLAYERS = 1000;
+    private static final int EXCHANGES = 10;
+    private static final String[] WORDS = ("the a to of and you can it with for on your is in use craft place "
+            + "redstone piston observer hopper chest furnace iron gold diamond netherite pickaxe sword enchant "
+            + "villager trade emerald farm wheat carrot potato sugar cane water lava block torch night zombie "
+            + "creeper skeleton spider enderman nether portal obsidian end dragon elytra beacon anvil book "
+            + "mending unbreaking efficiency fortune silk touch biome village stronghold minecart rail sapling")
+            .split(" ");
+
+    // Keeps the measured structure reachable until the second heap reading
+    private static Object sink;
+
+    private ConversationHistoryFootprint() {
+    }
+
+    public static void main(String[] args) {
+        List<String[]> conversation = conversation(new Random(42));
+        long legacy = measure(() -> {
+            Map<UUID, Deque<ChatMessage>> m = new ConcurrentHashMap<>();
+            for (int p = 0; p < PLAYERS; p++) {
+                Deque<ChatMessage> d = new ArrayDeque<>();
+                for (String[] ex : conversation) {
+                    // Copies, so players do not share the same String instances
+                    d.addLast(new ChatMessage("user", new String(ex[0].toCharArray())));
+                    d.addLast(new ChatMessage("assistant", new String(ex[1].toCharArray())));
+                }
+                m.put(UUID.randomUUID(), d);
+            }
+            return m;
+        });
+        long ring = measure(() -> rings(conversation, false));
+        long compressed = measure(() -> rings(conversation, true));
+        System.out.printf("Heap for %d players x %d exchanges:%n", PLAYERS, EXCHANGES);
+        System.out.printf("  Deque<ChatMessage>          %,d KB%n", legacy / 1024);
+        System.out.printf("  ConversationHistory         %,d KB%n", ring / 1024);
+        System.out.printf("  ConversationHistory+deflate %,d KB%n", compressed / 1024);
+    }
+
+    private static Map<UUID, ConversationHistory> rings(List<String[]> conversation, boolean compress) {
+        Map<UUID, ConversationHistory> m = new ConcurrentHashMap<>();
+        for (int p = 0; p < PLAYERS; p++) {
+            ConversationHistory h = new ConversationHistory(EXCHANGES * 2, compress);
+            for (String[] ex : conversation) {
+                h.add(ConversationHistory.Role.USER, ex[0]);
+                h.add(ConversationHistory.Role.ASSISTANT, ex[1]);
+            }
+            m.put(UUID.randomUUID(), h);
+        }
+        return m;
+    }
+
+    /**
+     * Short questions and 300-600 character replies, some containing an
+     * ellipsis (which made the old Strings UTF-16).
+     */
+    private static List<String[]> conversation(Random rnd) {
+        List<String[]> out = new ArrayList<>();
+        for (int i = 0; i < EXCHANGES; i++) {
+            String q = words(rnd, 8 + rnd.nextInt(8)) + "?";
+            String a = words(rnd, 60 + rnd.nextInt(60)) + (i % 3 == 0 ? "…" : ".");
+            out.add(new String[]{q, a});
+        }
+        return out;
+    }
+
+    private static String words(Random rnd, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static long measure(Supplier<Object> build) {
+        long before = usedAfterGc();
+        sink = build.get();
+        long after = usedAfterGc();
+        sink = null;
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,45 @@
+package dev.charlielarson.ai_chat.util;
+
+import com.google.gson.JsonParser;
+import dev.charlielarson.ai_chat.config.ModConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InteractionLogTest {
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void stop() {
+        InteractionLog.shutdown();
+    }
+
+    @Test
+    void reloadingHandsTheFileOverWithoutLosingOrInterleavingRecords() throws IOException {
+        ModConfig cfg = ModConfig.defaultConfig();
+        cfg.interactionLogEnabled = true;
+        int n = 0;
+        for (int reload = 0; reload < 20; reload++) {
+            InteractionLog.configure(dir, cfg);
+            for (int i = 0; i < 50; i++)
+                assertTrue(InteractionLog.record(entry(n++)));
+        }
+        InteractionLog.shutdown();
+        List<String> lines = Files.readAllLines(dir.resolve("interactions.log"));
+        assertEquals(n, lines.size());
+        for (int i = 0; i < n; i++)
+            assertEquals("p" + i, JsonParser.parseString(lines.get(i)).getAsJsonObject().get("player").getAsString());
+    }
+
+    private static InteractionLog.Entry entry(int i) {
+        return new InteractionLog.Entry(i, "p" + i, "openai", "m", 10, 1, 2, null, "reply");
+    }
+}
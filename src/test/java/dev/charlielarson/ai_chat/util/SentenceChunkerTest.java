@@ -0,0 +1,55 @@
+package dev.charlielarson.ai_chat.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentenceChunkerTest {
+    private static List<String> chunks(String text, int pieceLength) {
+        List<String> out = new ArrayList<>();
+        SentenceChunker chunker = new SentenceChunker(out::add);
+        for (int i = 0; i < text.length(); i += pieceLength)
+            chunker.accept(text.substring(i, Math.min(text.length(), i + pieceLength)));
+        chunker.finish();
+        return out;
+    }
+
+    @Test
+    void splitsAtLinesAndSentences() {
+        String text = "Place the observer facing the cane. Put a piston behind it!\n\n1. Water\n2. Sand";
+        List<String> expected = List.of("Place the observer facing the cane.", "Put a piston behind it!", "1. Water",
+                "2. Sand");
+        assertEquals(expected, chunks(text, 1));
+        assertEquals(expected, chunks(text, 3));
+        assertEquals(expected, chunks(text, text.length()));
+    }
+
+    @Test
+    void shortSentencesStayTogether() {
+        assertEquals(List.of("Yes. It works. Use a hopper below it."), chunks("Yes. It works. Use a hopper below it.", 2));
+    }
+
+    @Test
+    void longTextWithoutSentenceEndsIsSplitAtAWord() {
+        String text = "word ".repeat(100).strip();
+        List<String> out = chunks(text, 5);
+        assertTrue(out.size() > 1);
+        assertEquals(text, String.join(" ", out));
+        for (String chunk : out)
+            assertTrue(chunk.length() <= 256 && !chunk.startsWith(" ") && chunk.endsWith("word"), chunk);
+    }
+
+    @Test
+    void finishReportsWhetherAnythingWasSent() {
+        SentenceChunker chunker = new SentenceChunker(s -> {
+        });
+        assertFalse(chunker.finish());
+        chunker.accept(" ");
+        assertFalse(chunker.finish());
+        chunker.accept("hi");
+        assertTrue(chunker.finish());
+    }
+}